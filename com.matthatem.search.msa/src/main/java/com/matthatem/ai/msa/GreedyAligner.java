@@ -0,0 +1,117 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.matthatem.ai.msa;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import com.matthatem.ai.msa.MSA.MSANode;
+import com.matthatem.ai.msa.MSA.MSAState;
+import com.matthatem.ai.msa.algorithms.SearchAlgorithm;
+import com.matthatem.ai.msa.algorithms.SearchResult;
+
+/**
+ * A fast greedy aligner.  Starting from the initial state it always
+ * follows the child with the lowest f value, breaking ties in favor of
+ * higher g, until it reaches the goal.  The children are generated by 
+ * the domain so the cost of the alignment is the exact cost of the same
+ * scoring model and can serve as an upper bound for an optimal search.
+ * 
+ * @author Matthew Hatem
+ */
+public final class GreedyAligner implements SearchAlgorithm {
+  
+  private MSA domain;
+  private long expanded;
+  private long generated;
+  
+  /**
+   * The constructor.
+   * 
+   * @param domain the search domain
+   */
+  public GreedyAligner(final MSA domain) {
+    this.domain = domain;
+  }
+  
+  /**
+   * Computes a greedy alignment.  The goal of the domain is not changed.
+   * 
+   * @return the goal node of the alignment or null if there is none
+   */
+  public MSANode align() {
+    MSANode goal = domain.goal;
+    MSAState state = domain.copy(domain.initial());
+    MSANode children[] = new MSANode[domain.getNumOps()];
+    MSANode n = domain.initialNode();
+    while (!domain.isGoal(n.packed)) {
+      expanded++;
+      for (int i=0; i<children.length; i++) {
+        children[i] = new MSANode();
+      }
+      domain.unpack(n.packed, n.e, state);
+      int count = domain.expand(state, n, children);
+      generated += count;
+      MSANode best = null;
+      for (int i=0; i<count; i++) {
+        MSANode child = children[i];
+        if (best == null || child.f < best.f 
+            || (child.f == best.f && child.g > best.g)) {
+          best = child;
+        }
+      }
+      if (best == null) {
+        n = null;
+        break;
+      }
+      n = best;
+    }
+    domain.goal = goal;
+    return n;
+  }
+  
+  /**
+   * Returns the cost of a greedy alignment.
+   * 
+   * @return the cost or infinity if there is no alignment
+   */
+  public double getCost() {
+    MSANode n = align();
+    return n == null ? Double.POSITIVE_INFINITY : n.g;
+  }
+  
+  /* (non-Javadoc)
+   * @see edu.unh.ai.search.SearchAlgorithm#search(java.lang.Object)
+   */
+  public SearchResult<MSAState> search() {
+    double cost = 0;
+    List<MSAState> path = new ArrayList<MSAState>();
+    MSANode n = align();
+    if (n != null) {
+      cost = n.g;
+      domain.goal = n;
+      for (MSANode p = n; p != null; p = p.parent) {
+        path.add(domain.unpack(p.packed, p.e));
+      }
+    }
+    SearchResult<MSAState> result = 
+        new SearchResult<MSAState>(path, expanded, generated);
+    result.setCost(cost);
+    return result;
+  }
+  
+}
@@ -32,6 +32,7 @@ import com.matthatem.ai.msa.heuristics.HeuristicAF2D;
 import com.matthatem.ai.msa.heuristics.HeuristicAF3D;
 import com.matthatem.ai.msa.heuristics.HeuristicAF3DInt;
 import com.matthatem.ai.msa.heuristics.HeuristicAFDivConq;
+import com.matthatem.ai.msa.heuristics.HeuristicHierarchical;
 
 
 /**
@@ -53,6 +54,7 @@ public class MSA {
   private HashMap<String, String> mapIDtoSeq = new HashMap<String, String>();
   private HashMap<Integer, String> mapIndextoID = new HashMap<Integer, String>();
   private MSAState initial;
+  private long goalPacked;
   private char[][] seqs;
   private int[] seqLen;
   private int numSeqs;
@@ -62,6 +64,9 @@ public class MSA {
   private int longestSeqIndex;
   private int longestSeqIndex2;
   private MSAHeuristic heuristic;
+  private MSAHeuristic reverseHeuristic;
+  private MSAHeuristic lazyHeuristic;
+  private HEURISTICS heuristicType;
   private SubMatrix subMatrix;
   private double D[][];
  
@@ -78,12 +83,18 @@ public class MSA {
   private double oprGapCost[];
   
   private MSAProjection projection;
+  private HeuristicAF2D pairwise;
   
   private boolean penTermGaps;  
+  private double weight;
+  private double upperBound = Double.POSITIVE_INFINITY;
+  private int band = -1;
+  private int bandLo[][][];
+  private int bandHi[][][];
   
   public MSANode goal = null;
   
-  public static enum HEURISTICS {H2D, H3D, H3D_INT, HDIVCONQ, HDIVCONQ_INT};
+  public static enum HEURISTICS {H2D, H3D, H3D_INT, HDIVCONQ, HDIVCONQ_INT, HHIER};
   
   /*
    * The MSA state class.
@@ -110,6 +121,47 @@ public class MSA {
   }
   public MSA(InputStream stream, HEURISTICS h, boolean penTermGaps, double weight) {
     this.penTermGaps = penTermGaps;
+    this.weight = weight;
+    readInstance(stream);
+    if (h.equals(HEURISTICS.HDIVCONQ)) {
+      System.out.println("Using divconq heuristic!");
+    }
+    else if (h.equals(HEURISTICS.HDIVCONQ_INT)) {
+      System.out.println("Using divconq_int heuristic!");
+    }
+    else if (h.equals(HEURISTICS.HHIER)) {
+      System.out.println("Using hierarchical heuristic!");
+    }
+    this.heuristicType = h;
+    this.heuristic = createHeuristic(h, seqs);
+    init();
+  }
+  
+  /**
+   * Creates a sub-instance of a larger instance with the 2D heuristic 
+   * projected from the pairwise tables of the larger instance, so no 
+   * pairwise alignment is computed again.  The sequence ids in the 
+   * stream are the indices of the sequences in the larger instance.
+   * 
+   * @param stream the sequences of the sub-instance
+   * @param pairwise the 2D heuristic of the larger instance
+   * @param penTermGaps true if terminal gaps are penalized
+   */
+  public MSA(InputStream stream, HeuristicAF2D pairwise, 
+      boolean penTermGaps) {
+    this.penTermGaps = penTermGaps;
+    this.weight = 1;
+    readInstance(stream);
+    int index[] = new int[numSeqs];
+    for (int i=0; i<numSeqs; i++) {
+      index[i] = Integer.parseInt(getSequenceID(i));
+    }
+    this.heuristicType = HEURISTICS.H2D;
+    this.heuristic = pairwise.project(index);
+    init();
+  }
+  
+  private void readInstance(InputStream stream) {
     try {
       BufferedReader reader = new BufferedReader(
           new InputStreamReader(stream));
@@ -121,31 +173,42 @@ public class MSA {
       e.printStackTrace();
     }
     numSeqs = mapIDtoSeq.keySet().size();
+    for (int i = 0; i < numSeqs; i++) {
+      goalPacked = (goalPacked << 10) | seqLen[i];
+    }
 
     this.subMatrix = new SubMatrix("msa/pam250.sub", penTermGaps);
+  }
+  
+  private void init() {
+    this.D = subMatrix.D;
+    
+    initGapTable();
+    initGrayCodes();
+    initOperators();
+  }
+  
+  private MSAHeuristic createHeuristic(HEURISTICS h, char seqs[][]) {
     if (h.equals(HEURISTICS.H3D)) {
-      this.heuristic = new HeuristicAF3D(seqs, subMatrix, weight);
+      return new HeuristicAF3D(seqs, subMatrix, weight);
     }
     else if (h.equals(HEURISTICS.H3D_INT)) {
-      this.heuristic = new HeuristicAF3DInt(seqs, subMatrix, weight);
+      return new HeuristicAF3DInt(seqs, subMatrix, weight);
     }
     else if (h.equals(HEURISTICS.HDIVCONQ)) {
-      System.out.println("Using divconq heuristic!");
-      this.heuristic = new HeuristicAFDivConq(seqs, subMatrix, weight);
+      return new HeuristicAFDivConq(seqs, subMatrix, weight);
     }
     else if (h.equals(HEURISTICS.HDIVCONQ_INT)) {
-      System.out.println("Using divconq_int heuristic!");
-      this.heuristic = new HeuristicAFDivConq(seqs, subMatrix,
+      return new HeuristicAFDivConq(seqs, subMatrix,
           HeuristicAFDivConq.TYPE.INT, weight);
     }
-    else {
-      this.heuristic = new HeuristicAF2D(seqs, subMatrix, weight);
+    else if (h.equals(HEURISTICS.HHIER)) {
+      // the reversed sequences of bidirectional search need own tables
+      HeuristicAF2D h2d = seqs == this.seqs 
+          ? getPairwiseHeuristic() : new HeuristicAF2D(seqs, subMatrix, 1);
+      return new HeuristicHierarchical(seqs, h2d, penTermGaps, weight);
     }
-    this.D = subMatrix.D;
-    
-    initGapTable();
-    initGrayCodes();
-    initOperators();
+    return new HeuristicAF2D(seqs, subMatrix, weight);
   }
   
   private void readSequences(BufferedReader reader) throws IOException {
@@ -281,6 +344,41 @@ public class MSA {
     return mapIDtoSeq.get(key).trim();
   }
   
+  public String getSequenceID(int i) {
+    return mapIndextoID.get(i);
+  }
+  
+  public int getSequenceLength(int i) {
+    return seqLen[i];
+  }
+  
+  /**
+   * Returns an optimal pairwise alignment of the sequences i and j, where
+   * j is less than i.  Entry x holds the residue of sequence j aligned 
+   * with residue x of sequence i, or 0 for a gap.
+   * 
+   * @param i the first sequence
+   * @param j the second sequence
+   * @return the residues of sequence j matched to sequence i
+   */
+  public int[] getPairwiseAlignment(int i, int j) {
+    return getPairwiseHeuristic().getAlignment(i, j);
+  }
+  
+  /*
+   * Returns the pairwise heuristic, the tables are only built once if the
+   * configured heuristic is not pairwise.
+   */
+  private synchronized HeuristicAF2D getPairwiseHeuristic() {
+    if (heuristic instanceof HeuristicAF2D) {
+      return (HeuristicAF2D)heuristic;
+    }
+    if (pairwise == null) {
+      pairwise = new HeuristicAF2D(seqs, subMatrix, 1);
+    }
+    return pairwise;
+  }
+  
   public int[] getEdgeIDTable() {
     return eIDTab;
   }
@@ -417,14 +515,24 @@ public class MSA {
           }
       } 
       
+      // skip children outside of the band
+      if (band >= 0 && !inBand(state.pos)) {
+        continue;
+      }
+      
       // Generate the child nodes
       // TODO: some of this code should be part of the search algorithm?
       double h = 0;
       MSANode child = children[generated];
       try {
         h = heuristic.getH(state, delta1);
+        double g = parent.g + cost + oprGapCost[op];
+        // prune children that cannot lead to a better alignment
+        if (g + h/weight > upperBound) {
+          continue;
+        }
         child.parent = parent;
-        child.g = parent.g + cost + oprGapCost[op];
+        child.g = g;
         child.f = child.g + h;
         child.packed = pack(state);
         child.e = (byte)eID;
@@ -451,6 +559,489 @@ public class MSA {
     return generated;
   }
   
+  /**
+   * Returns true if the heuristic can be broken down into pairwise terms
+   * so that operators can be selected by their f value before the
+   * children are generated.
+   * 
+   * @return true if operator selection is supported
+   */
+  public boolean hasOperatorSelection() {
+    return heuristic instanceof HeuristicAF2D;
+  }
+  
+  /**
+   * The operator selection function (OSF) used by EPEA*.  Both the edge
+   * cost and the 2D heuristic are sums over the pairs of sequences, so
+   * the f value of every child can be assembled from four precomputed
+   * terms per pair.  Lists the operators (edge ids) whose child f value
+   * falls in (lowF, highF] and stores the smallest child f value above
+   * highF in next[0].
+   * 
+   * @param state the parent state
+   * @param g the g value of the parent
+   * @param lowF the lower (exclusive) f bound
+   * @param highF the upper (inclusive) f bound
+   * @param ops the selected operators
+   * @param next holds the next best f value
+   * @return the number of selected operators
+   */
+  public int selectOperators(MSAState state, double g, double lowF, 
+      double highF, int ops[], double next[]) {
+    HeuristicAF2D h2 = (HeuristicAF2D)heuristic;
+    double lrGapCost = subMatrix.getLinearGapCost();
+    int numPairs = numSeqs*(numSeqs - 1)/2;
+    
+    int delta0[] = new int[numSeqs];
+    int delta1[][] = new int[numSeqs][2];
+    for (int j = 0; j < numSeqs; j++) {
+      delta0[j] = getDelta(state.e, j, state.pos[j]);
+      delta1[j][0] = getDelta(0, j, state.pos[j]);
+      delta1[j][1] = getDelta(1 << j, j, state.pos[j]+1);
+    }
+    
+    /*
+     * The f contribution of each pair for each of the four moves
+     * (neither, j only, i only, both) projected onto the pair.
+     */
+    Selection s = new Selection();
+    s.pairF = new double[numPairs][4];
+    s.minRest = new double[numSeqs+1];
+    s.maxRest = new double[numSeqs+1];
+    for (int i = 1, k = 0; i < numSeqs; i++) {
+      double min = 0, max = 0;
+      for (int j = 0; j < i; j++, k++) {
+        double pmin = Double.POSITIVE_INFINITY;
+        double pmax = Double.NEGATIVE_INFINITY;
+        for (int b = 0; b < 4; b++) {
+          int bi = b >> 1; int bj = b & 1;
+          if ((bi == 1 && state.pos[i] == seqLen[i]) ||
+              (bj == 1 && state.pos[j] == seqLen[j])) {
+            s.pairF[k][b] = Double.POSITIVE_INFINITY;
+            continue;
+          }
+          int pi = state.pos[i] + bi; int pj = state.pos[j] + bj;
+          double f = T[delta0[i]][delta0[j]][bi][bj];
+          if (bi == 1 && bj == 1) 
+            f += D[seqs[i][pi]][seqs[j][pj]];
+          else if (bi != bj) 
+            f += lrGapCost;
+          f += h2.getH(i, j, pi, pj, delta1[i][bi], delta1[j][bj]);
+          s.pairF[k][b] = f;
+          pmin = Math.min(pmin, f); pmax = Math.max(pmax, f);
+        }
+        min += pmin; max += pmax;
+      }
+      s.minRest[i] = min; s.maxRest[i] = max;
+    }
+    for (int i = numSeqs - 1; i >= 0; i--) {
+      s.minRest[i] += s.minRest[i+1]; 
+      s.maxRest[i] += s.maxRest[i+1];
+    }
+    
+    s.state = state;
+    s.lowF = lowF - g;
+    s.highF = highF - g;
+    s.next = Double.POSITIVE_INFINITY;
+    s.ops = ops;
+    select(s, 0, 0, 0);
+    next[0] = g + s.next;
+    return s.count;
+  }
+  
+  /*
+   * Depth first enumeration of the operators one sequence at a time.
+   * Pairs (i, j < i) are added once the bit for sequence i is set and
+   * subtrees that can not reach the requested f range are pruned.
+   */
+  private void select(Selection s, int i, int op, double f) {
+    double lo = f + s.minRest[i];
+    double hi = f + s.maxRest[i];
+    if (hi <= s.lowF) return;
+    if (lo > s.highF && lo >= s.next) return;
+    if (i == numSeqs) {
+      if (op == 0) return;
+      if (f <= s.highF) 
+        s.ops[s.count++] = op;
+      else if (f < s.next) 
+        s.next = f;
+      return;
+    }
+    for (int bi = 0; bi < 2; bi++) {
+      if (bi == 1 && s.state.pos[i] == seqLen[i]) continue;
+      double fi = f;
+      int k = i*(i - 1)/2;
+      for (int j = 0; j < i; j++, k++) {
+        int bj = (op >> j) & 1;
+        fi += s.pairF[k][(bi << 1) | bj];
+      }
+      select(s, i+1, op | (bi << i), fi);
+    }
+  }
+  
+  /*
+   * Holds the working data for one call to the OSF.
+   */
+  private static final class Selection {
+    private MSAState state;
+    private double pairF[][];
+    private double minRest[];
+    private double maxRest[];
+    private double lowF;
+    private double highF;
+    private double next;
+    private int ops[];
+    private int count;
+  }
+  
+  /**
+   * Generates the children for the specified operators only.
+   * 
+   * @param state the parent state
+   * @param parent the parent node
+   * @param children the child nodes
+   * @param ops the operators (edge ids) to apply
+   * @param count the number of operators
+   * @return the number of children generated
+   */
+  public int expand(MSAState state, MSANode parent, MSANode children[], 
+      int ops[], int count) {
+    int delta1[] = new int[numSeqs];
+    int generated = 0;
+    for (int o = 0; o < count; o++) {
+      int eID = ops[o];
+      double cost = cost(state, eID);
+      for (int j = 0; j < numSeqs; j++) {
+        state.pos[j] += (eID >> j) & 1;
+      }
+      for (int j = 0; j < numSeqs; j++) {
+        delta1[j] = getDelta(eID, j, state.pos[j]);
+      }
+      double h = heuristic.getH(state, delta1);
+      double g = parent.g + cost;
+      if (g + h/weight <= upperBound && (band < 0 || inBand(state.pos))) {
+        MSANode child = children[generated++];
+        child.parent = parent;
+        child.g = g;
+        child.f = child.g + h;
+        child.packed = pack(state);
+        child.e = (byte)eID;
+        if (child.packed == goalPacked) {
+          setGoal(child);
+        }
+      }
+      for (int j = 0; j < numSeqs; j++) {
+        state.pos[j] -= (eID >> j) & 1;
+      }
+    }
+    return generated;
+  }
+  
+  /*
+   * Computes the cost of applying the operator (edge id) eID to the 
+   * specified state.  This is the same cost computed by opForward.
+   */
+  private double cost(MSAState state, int eID) {
+    return columnCost(state.pos, eID) + gapCost(state.e, state.pos, eID);
+  }
+  
+  /*
+   * Computes the substitution and linear gap cost of the column added by
+   * applying the operator (edge id) eID at the specified positions.
+   */
+  private double columnCost(int pos[], int eID) {
+    double lrGapCost = subMatrix.getLinearGapCost();
+    double cost = 0;
+    for (int i = 1; i < numSeqs; i++) {
+      int bi = (eID >> i) & 1;
+      char ch = seqs[i][pos[i] + bi];
+      for (int j = 0; j < i; j++) {
+        int bj = (eID >> j) & 1;
+        if (bi == 1 && bj == 1) 
+          cost += D[ch][seqs[j][pos[j] + 1]];
+        else if (bi != bj)
+          cost += lrGapCost;
+      }
+    }
+    return cost;
+  }
+  
+  /*
+   * Computes the affine gap cost of following the incoming edge e with
+   * the operator (edge id) eID at the specified positions.
+   */
+  private double gapCost(int e, int pos[], int eID) {
+    double cost = 0;
+    for (int i = 1; i < numSeqs; i++) {
+      int bi = (eID >> i) & 1;
+      int di = getDelta(e, i, pos[i]);
+      for (int j = 0; j < i; j++) {
+        int bj = (eID >> j) & 1;
+        int dj = getDelta(e, j, pos[j]);
+        cost += T[di][dj][bi][bj];
+      }
+    }
+    return cost;
+  }
+  
+  /*
+   * Returns the gap state of sequence j for edge id e at position pos.
+   */
+  private int getDelta(int e, int j, int pos) {
+    if (!penTermGaps && (pos == 0 || pos == seqLen[j])) 
+      return 2;
+    return (e & (1 << j)) > 0 ? 1 : 0;
+  }
+  
+  /**
+   * Sets the cost of a known alignment.  Children with a lower bound on
+   * the cost of their alignment above it are not generated by expand.
+   * 
+   * @param upperBound the upper bound on the optimal alignment cost
+   */
+  public void setUpperBound(double upperBound) {
+    this.upperBound = upperBound;
+  }
+  
+  public double getUpperBound() {
+    return upperBound;
+  }
+  
+  /**
+   * Restricts the lattice to a band around the optimal pairwise 
+   * alignments.  A state is only generated if the projection onto every 
+   * pair of sequences is within width positions of the pairwise optimal 
+   * path.  The resulting alignments are not guaranteed to be optimal and
+   * a band that is too narrow may contain no alignment at all.
+   * 
+   * @param width the band width
+   */
+  public void setBand(int width) {
+    this.band = width;
+    bandLo = new int[numSeqs][][];
+    bandHi = new int[numSeqs][][];
+    for (int i = 1; i < numSeqs; i++) {
+      bandLo[i] = new int[i][];
+      bandHi[i] = new int[i][];
+      for (int j = 0; j < i; j++) {
+        int match[] = getPairwiseAlignment(i, j);
+        int lo[] = new int[seqLen[i]+1];
+        int hi[] = new int[seqLen[i]+1];
+        // walk the pairwise path and record the range of j at each x
+        int y = 0;
+        for (int x = 1; x <= seqLen[i]; x++) {
+          if (match[x] > 0) {
+            hi[x-1] = match[x] - 1;
+            y = match[x];
+          }
+          else {
+            hi[x-1] = y;
+          }
+          lo[x] = y;
+        }
+        hi[seqLen[i]] = seqLen[j];
+        for (int x = 0; x <= seqLen[i]; x++) {
+          lo[x] -= width;
+          hi[x] += width;
+        }
+        bandLo[i][j] = lo;
+        bandHi[i][j] = hi;
+      }
+    }
+  }
+  
+  /**
+   * Returns the band width or -1 if the lattice is not restricted.
+   * 
+   * @return the band width
+   */
+  public int getBand() {
+    return band;
+  }
+  
+  /*
+   * Returns true if the projections of the positions onto all pairs of 
+   * sequences are within the band.
+   */
+  private boolean inBand(int pos[]) {
+    for (int i = 1; i < numSeqs; i++) {
+      int x = pos[i];
+      for (int j = 0; j < i; j++) {
+        if (pos[j] < bandLo[i][j][x] || pos[j] > bandHi[i][j][x]) {
+          return false;
+        }
+      }
+    }
+    return true;
+  }
+  
+  /**
+   * Switches to lazy heuristic evaluation.  Children are generated with
+   * the cheap 2D heuristic and the configured heuristic is only computed
+   * on request with getLazyH.  The 2D heuristic shares the pairwise
+   * tables.  Has no effect with the 2D heuristic.
+   */
+  public void initLazyHeuristic() {
+    if (heuristic instanceof HeuristicAF2D) {
+      return;
+    }
+    HeuristicAF2D h2d = getPairwiseHeuristic().reweight(weight);
+    lazyHeuristic = heuristic;
+    heuristic = h2d;
+  }
+  
+  /**
+   * Returns true if the heuristic is evaluated lazily.
+   * 
+   * @return true if getLazyH can be used
+   */
+  public boolean hasLazyHeuristic() {
+    return lazyHeuristic != null;
+  }
+  
+  /**
+   * Returns the configured heuristic of the specified state, used when 
+   * the heuristic is evaluated lazily.
+   * 
+   * @param state the state, with the incoming edge
+   * @return the heuristic
+   */
+  public double getLazyH(MSAState state) {
+    int delta[] = new int[numSeqs];
+    for (int j = 0; j < numSeqs; j++) {
+      delta[j] = getDelta(state.e, j, state.pos[j]);
+    }
+    return lazyHeuristic.getH(state, delta);
+  }
+  
+  /**
+   * Returns the heuristic of the specified state without the weight, a 
+   * lower bound on the cost to go.
+   * 
+   * @param state the state, with the incoming edge
+   * @return the heuristic
+   */
+  public double getH(MSAState state) {
+    int delta[] = new int[numSeqs];
+    for (int j = 0; j < numSeqs; j++) {
+      delta[j] = getDelta(state.e, j, state.pos[j]);
+    }
+    return heuristic.getH(state, delta) / weight;
+  }
+  
+  /**
+   * Initializes the reverse heuristic, a lower bound on the cost from the
+   * initial state.  It is the same heuristic computed over the reversed
+   * sequences, so the tables are built from the start of the sequences.
+   */
+  public void initReverse() {
+    if (reverseHeuristic != null) {
+      return;
+    }
+    char rseqs[][] = new char[numSeqs][];
+    for (int i = 0; i < numSeqs; i++) {
+      rseqs[i] = new char[seqs[i].length];
+      rseqs[i][0] = seqs[i][0];
+      for (int k = 1; k <= seqLen[i]; k++) {
+        rseqs[i][k] = seqs[i][seqLen[i] + 1 - k];
+      }
+    }
+    reverseHeuristic = createHeuristic(heuristicType, rseqs);
+  }
+  
+  /**
+   * Returns the reverse heuristic of the specified state, a lower bound
+   * on the cost of reaching it from the initial state.
+   * 
+   * @param state the state
+   * @return the cost-from-start lower bound
+   */
+  public double getReverseH(MSAState state) {
+    MSAState rstate = new MSAState(numSeqs);
+    int delta[] = new int[numSeqs];
+    for (int i = 0; i < numSeqs; i++) {
+      rstate.pos[i] = seqLen[i] - state.pos[i];
+      delta[i] = 1; // the gap state is not known, assume no gaps
+    }
+    return reverseHeuristic.getH(rstate, delta);
+  }
+  
+  /**
+   * Returns the node the reverse search starts from, the goal.  Nodes of
+   * the reverse search store the outgoing edge and their g value is the
+   * cost of the path to the goal, excluding the affine gap cost between
+   * the outgoing edge and the edge coming into the state.  The goal has 
+   * the edge that matches in all sequences which adds no affine gap cost.
+   * 
+   * @return the goal node
+   */
+  public MSANode goalNode() {
+    MSAState state = unpack(goalPacked, (byte)numOps);
+    MSANode node = new MSANode();
+    node.g = 0;
+    node.f = getReverseH(state);
+    node.packed = goalPacked;
+    node.e = (byte)numOps;
+    return node;
+  }
+  
+  /**
+   * Generates the predecessors of the specified state for the reverse
+   * search.  The edge of a predecessor is the edge that leads into the
+   * state.  initReverse must be called first.
+   * 
+   * @param state the state, with the outgoing edge
+   * @param parent the node of the state
+   * @param children the predecessor nodes
+   * @return the number of predecessors generated
+   */
+  public int expandReverse(MSAState state, MSANode parent, 
+      MSANode children[]) {
+    MSAState pred = new MSAState(numSeqs);
+    int generated = 0;
+    for (int eID = 1; eID <= numOps; eID++) {
+      int j = 0;
+      for (; j < numSeqs; j++) {
+        pred.pos[j] = state.pos[j] - ((eID >> j) & 1);
+        if (pred.pos[j] < 0) break;
+      }
+      if (j < numSeqs || (band >= 0 && !inBand(pred.pos))) continue;
+      double cost = columnCost(pred.pos, eID) 
+          + gapCost(eID, state.pos, state.e);
+      MSANode child = children[generated++];
+      child.parent = parent;
+      child.g = parent.g + cost;
+      child.f = child.g + getReverseH(pred);
+      child.packed = pack(pred);
+      child.e = (byte)eID;
+    }
+    return generated;
+  }
+  
+  /**
+   * Returns the cost of applying the operator (edge id) eID to the 
+   * specified state, the same cost computed by expand.
+   * 
+   * @param state the state, with the incoming edge
+   * @param eID the operator
+   * @return the cost of the edge
+   */
+  public double getEdgeCost(MSAState state, int eID) {
+    return cost(state, eID);
+  }
+  
+  /**
+   * Returns the affine gap cost of joining a node of the forward search
+   * with a node of the reverse search at the same state.
+   * 
+   * @param state the state, with the incoming edge
+   * @param e the outgoing edge
+   * @return the cost of joining the incoming and outgoing edges
+   */
+  public double getJoinCost(MSAState state, int e) {
+    return gapCost(state.e, state.pos, e);
+  }
+  
   private synchronized void setGoal(MSANode node) {
     if (goal == null || goal.g > node.g) {
       goal = node;
@@ -465,6 +1056,31 @@ public class MSA {
     return copy;
   }
 
+  public boolean isGoal(long packed) {
+    return packed == goalPacked;
+  }
+  
+  public long getGoalPacked() {
+    return goalPacked;
+  }
+
+  /**
+   * Returns the distance to go from the packed state, the fewest moves
+   * needed to reach the goal.  This is the number of residues left in
+   * the longest remaining suffix.
+   *
+   * @param packed the packed state
+   * @return the distance to the goal
+   */
+  public int getDistance(long packed) {
+    int d = 0;
+    for (int i = numSeqs - 1; i >= 0; i--) {
+      d = Math.max(d, seqLen[i] - ((int) packed & 0x3FF));
+      packed >>= 10;
+    }
+    return d;
+  }
+
   public long pack(MSAState state) {
     // this assumes less than 6 sequences
     long word = 0;
@@ -509,6 +1125,14 @@ public class MSA {
   public long getProjectionSize() {
     return projection.size();
   }
+  
+  public int[] getProjectionSuccessors(int id) {
+    return projection.successors(id);
+  }
+  
+  public int[] getProjectionPredecessors(int id) {
+    return projection.predecessors(id);
+  }
 
   public int getRootOp() {
     return numOps+1;
@@ -679,6 +1303,17 @@ public class MSA {
     return this.heuristic;
   }
   
+  /**
+   * Returns the heuristic of the initial state, computed with the 
+   * configured heuristic when it is evaluated lazily.
+   * 
+   * @return the initial heuristic
+   */
+  public double getInitH() {
+    return lazyHeuristic != null 
+        ? lazyHeuristic.getInitH() : heuristic.getInitH();
+  }
+  
   public int getNumSeqs() {
     return numSeqs;
   }
@@ -16,6 +16,8 @@
  */
 package com.matthatem.ai.msa;
 
+import java.util.Arrays;
+
 import com.matthatem.ai.msa.MSA.MSAState;
 
 /**
@@ -27,6 +29,8 @@ import com.matthatem.ai.msa.MSA.MSAState;
 class MSALatticeProjection implements MSAProjection {
   private int abstraction[][];
   private int abstractionSize;
+  private int succ[][];
+  private int pred[][];
   private int longestSeqIndex;
   private int longestSeqIndex2;
   
@@ -68,5 +72,76 @@ class MSALatticeProjection implements MSAProjection {
   public long size() {
     return abstractionSize;
   }
+  
+  public int[] successors(int id) {
+    if (succ == null) {
+      initGraph();
+    }
+    return succ[id];
+  }
+  
+  public int[] predecessors(int id) {
+    if (pred == null) {
+      initGraph();
+    }
+    return pred[id];
+  }
+  
+  /*
+   * Builds the edges between the abstract nodes.  A move advances each 
+   * of the two sequences by at most one position.
+   */
+  private synchronized void initGraph() {
+    if (succ != null) {
+      return;
+    }
+    int x = abstraction.length;
+    int y = abstraction[0].length;
+    int succCount[] = new int[abstractionSize];
+    int predCount[] = new int[abstractionSize];
+    for (int pass = 0; pass < 2; pass++) {
+      for (int i = 0; i < x; i++) {
+        for (int j = 0; j < y; j++) {
+          int from = abstraction[i][j];
+          for (int di = 0; di <= 1 && i + di < x; di++) {
+            for (int dj = 0; dj <= 1 && j + dj < y; dj++) {
+              int to = abstraction[i+di][j+dj];
+              if (pass == 0) {
+                succCount[from]++;
+                predCount[to]++;
+              }
+              else {
+                pred[to][--predCount[to]] = from;
+                succ[from][--succCount[from]] = to;
+              }
+            }
+          }
+        }
+      }
+      if (pass == 0) {
+        pred = new int[abstractionSize][];
+        succ = new int[abstractionSize][];
+        for (int id = 0; id < abstractionSize; id++) {
+          pred[id] = new int[predCount[id]];
+          succ[id] = new int[succCount[id]];
+        }
+      }
+    }
+    for (int id = 0; id < abstractionSize; id++) {
+      succ[id] = distinct(succ[id]);
+      pred[id] = distinct(pred[id]);
+    }
+  }
+  
+  private static int[] distinct(int a[]) {
+    Arrays.sort(a);
+    int n = 0;
+    for (int i = 0; i < a.length; i++) {
+      if (n == 0 || a[i] != a[n-1]) {
+        a[n++] = a[i];
+      }
+    }
+    return Arrays.copyOf(a, n);
+  }
 
 }
@@ -39,5 +39,23 @@ public interface MSAProjection {
    * @return
    */
   public long size();
+  
+  /**
+   * Returns the abstract nodes that the children of the states in the
+   * specified abstract node project to.
+   * 
+   * @param id the abstract node
+   * @return the successors
+   */
+  public int[] successors(int id);
+  
+  /**
+   * Returns the abstract nodes that the parents of the states in the 
+   * specified abstract node project to.
+   * 
+   * @param id the abstract node
+   * @return the predecessors
+   */
+  public int[] predecessors(int id);
 
 }
@@ -0,0 +1,326 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.matthatem.ai.msa.algorithms;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+
+import com.carrotsearch.hppc.LongObjectOpenHashMap;
+import com.matthatem.ai.msa.MSA;
+import com.matthatem.ai.msa.MSA.MSANode;
+import com.matthatem.ai.msa.MSA.MSAState;
+import com.matthatem.ai.msa.collections.BinHeap;
+import com.matthatem.ai.msa.collections.Indexable;
+
+
+/**
+ * An implementation of Anytime Repairing A* (ARA*) tailored to the MSA
+ * domain.  The domain heuristic must not be weighted, the weight is
+ * applied by the search instead.  Each iteration expands nodes in order
+ * of g + w*h until no node can improve the incumbent.  Nodes whose g
+ * value improves after they were expanded in the current iteration are
+ * kept on the INCONS list.  The weight is then lowered, the INCONS list
+ * is merged into the open list and the open list is reordered.  The
+ * search stops when the incumbent is proven optimal or the time limit
+ * is reached.
+ *
+ * @author Matthew Hatem
+ */
+public final class ARAstar implements SearchAlgorithm {
+
+  private LongObjectOpenHashMap closed[];
+  private BinHeap<MNH> open = new BinHeap<MNH>(new NodeComparator());
+  private List<MNH> incons = new ArrayList<MNH>();
+  private List<MSAState> path = new ArrayList<MSAState>(3);
+  private MSA domain;
+  private double weight;
+  private double decrement;
+  private long timeLimit;
+  private long startTime;
+  private long expanded;
+  private long generated;
+  private long duplicates;
+  private int iteration;
+  private int solutions;
+  private double incumbent = Double.POSITIVE_INFINITY;
+  private double minF;
+  private MSANode solution;
+  private MSAState state;
+  private MSANode children[];
+
+  /**
+   * The constructor.
+   *
+   * @param domain the search domain
+   * @param weight the initial weight
+   * @param decrement the amount the weight is lowered after each iteration,
+   * must be positive
+   * @param timeLimit the time limit in milliseconds, 0 for no limit
+   */
+  public ARAstar(final MSA domain, double weight, double decrement,
+      long timeLimit) {
+    if (decrement <= 0) {
+      throw new IllegalArgumentException("decrement must be positive");
+    }
+    this.domain = domain;
+    this.weight = Math.max(1, weight);
+    this.decrement = decrement;
+    this.timeLimit = timeLimit;
+    this.children = new MSANode[domain.getNumOps()];
+    this.closed = new LongObjectOpenHashMap[domain.getNumOps()+1];
+    this.closed[domain.getNumOps()] = new LongObjectOpenHashMap<MNH>(); // root op
+    for (int i=0; i<this.children.length; i++) {
+      this.children[i] = new MSANode();
+      this.closed[i] = new LongObjectOpenHashMap<MNH>();
+    }
+  }
+
+  /* (non-Javadoc)
+   * @see edu.unh.ai.search.SearchAlgorithm#search(java.lang.Object)
+   */
+  public SearchResult<MSAState> search() {
+    startTime = System.currentTimeMillis();
+    state = domain.initial();
+    MSANode initNode = domain.initialNode();
+    open(new MNH(initNode));
+
+    double bound = Double.POSITIVE_INFINITY;
+    for (;;) {
+      iteration++;
+      boolean timeout = improvePath();
+      List<MNH> nodes = drain();
+      bound = bound(timeout);
+      System.out.println("iteration "+iteration+" weight "+weight
+          +" cost "+incumbent+" bound "+bound);
+      if (timeout || weight <= 1 || bound <= 1) {
+        break;
+      }
+      weight -= decrement;
+      if (weight < 1 + 1e-9) {
+        weight = 1;
+      }
+      reorder(nodes);
+    }
+
+    double cost = 0;
+    if (solution != null) {
+      cost = solution.g;
+      domain.goal = solution;
+      for (MSANode p = solution; p != null; p = p.parent) {
+        path.add(domain.unpack(p.packed, p.e));
+      }
+    }
+
+    SearchResult<MSAState> result =
+        new SearchResult<MSAState>(path, expanded, generated);
+    result.setProperty("duplicates", Long.toString(duplicates));
+    result.setProperty("iterations", iteration);
+    result.setProperty("solutions", solutions);
+    result.setProperty("final weight", Double.toString(weight));
+    result.setProperty("suboptimality bound", Double.toString(bound));
+    result.setCost(cost);
+    return result;
+  }
+
+  /*
+   * Expands nodes in order of g + w*h until no node on the open list can
+   * improve the incumbent.  Returns true if the time limit was reached.
+   */
+  private boolean improvePath() {
+    while (!open.isEmpty() && open.peek().fw < incumbent) {
+      if (timeLimit > 0 && (expanded & 0x3FF) == 0
+          && System.currentTimeMillis() - startTime > timeLimit) {
+        return true;
+      }
+      MNH mnh = open.poll();
+      mnh.iteration = iteration;
+      MSANode n = mnh.node;
+      expanded++;
+
+      domain.unpack(n.packed, n.e, state);
+      int count = domain.expand(state, n, children);
+
+      for (int i=0; i<count; i++) {
+        MSANode child = children[i];
+        // children that can not improve the incumbent are not stored
+        if (child.f >= incumbent) {
+          continue;
+        }
+        children[i] = new MSANode(); // reset!
+        // merge duplicates
+        MNH dup = (MNH)closed[child.e].get(child.packed);
+        if (dup != null) {
+          duplicates++;
+          if (child.g >= dup.node.g) {
+            continue;
+          }
+          dup.node.f = child.f;
+          dup.node.g = child.g;
+          dup.node.parent = child.parent;
+          dup.fw = key(dup.node);
+          if (dup.index != -1) {
+            open.update(dup.index);
+          }
+          else if (dup.iteration != iteration) {
+            open.add(dup);
+          }
+          else if (!dup.incons) {
+            dup.incons = true;
+            incons.add(dup);
+          }
+        }
+        // no duplicates
+        else {
+          dup = new MNH(child);
+          open(dup);
+          generated++;
+        }
+        if (domain.isGoal(child.packed)) {
+          solution(dup.node);
+        }
+      }
+    }
+    return false;
+  }
+
+  /*
+   * Records a new incumbent.  The path is copied since the g values and
+   * parents of the nodes on it may change later in the search.
+   */
+  private void solution(MSANode goal) {
+    incumbent = goal.g;
+    solutions++;
+    MSANode copy = null;
+    for (MSANode p = goal; p != null; p = p.parent) {
+      MSANode node = new MSANode();
+      node.packed = p.packed;
+      node.e = p.e;
+      node.g = p.g;
+      node.f = p.f;
+      if (copy == null) {
+        solution = node;
+      }
+      else {
+        copy.parent = node;
+      }
+      copy = node;
+    }
+    double time = (System.currentTimeMillis() - startTime) / 1000.0;
+    System.out.println("solution cost "+incumbent+" weight "+weight
+        +" time "+time+" expanded "+expanded);
+  }
+
+  /*
+   * Empties the open list and the INCONS list and records the smallest f
+   * value on them.  The open list is ordered by g + w*h, so every node is
+   * looked at.
+   */
+  private List<MNH> drain() {
+    List<MNH> nodes = new ArrayList<MNH>(open.size() + incons.size());
+    minF = incumbent;
+    while (!open.isEmpty()) {
+      MNH mnh = open.poll();
+      minF = Math.min(minF, mnh.node.f);
+      nodes.add(mnh);
+    }
+    for (MNH mnh : incons) {
+      mnh.incons = false;
+      minF = Math.min(minF, mnh.node.f);
+      nodes.add(mnh);
+    }
+    incons.clear();
+    return nodes;
+  }
+
+  /*
+   * Returns the bound on the suboptimality of the incumbent, the ratio of
+   * the incumbent cost and the smallest f value on open and INCONS.  The
+   * weight is also a bound if the last iteration was completed.  There
+   * is no bound before the first solution.
+   */
+  private double bound(boolean timeout) {
+    if (incumbent == Double.POSITIVE_INFINITY) {
+      return Double.POSITIVE_INFINITY;
+    }
+    if (timeout) {
+      return incumbent / minF;
+    }
+    return Math.min(weight, incumbent / minF);
+  }
+
+  /*
+   * Puts the drained nodes back on the open list ordered with the new 
+   * weight.
+   */
+  private void reorder(List<MNH> nodes) {
+    for (MNH mnh : nodes) {
+      mnh.fw = key(mnh.node);
+      open.add(mnh);
+    }
+  }
+
+  private double key(MSANode node) {
+    return node.g + weight * (node.f - node.g);
+  }
+
+  private void open(MNH mnh) {
+    open.add(mnh);
+    closed[mnh.node.e].put(mnh.node.packed, mnh);
+  }
+
+  /*
+   * Wrapper for MSANode to make heapable.  The node is ordered by fw, the
+   * weighted f value, and remembers the last iteration that expanded it.
+   */
+  private final class MNH implements Indexable {
+    private MSANode node;
+    private double fw;
+    private int iteration;
+    private boolean incons;
+    private int index = -1;
+    public MNH(MSANode node) {
+      this.node = node;
+      this.fw = key(node);
+    }
+    public int getIndex() {
+      return index;
+    }
+    public void setIndex(int index) {
+      this.index = index;
+    }
+  }
+
+  /*
+   * The node comparator class
+   */
+  private final class NodeComparator implements Comparator<MNH> {
+    public int compare(final MNH a, final MNH b) {
+      if (a.fw == b.fw) {
+        if (a.node.g > b.node.g) return -1;
+        if (a.node.g < b.node.g) return 1;
+        return 0;
+      }
+      else {
+        if (a.fw < b.fw) return -1;
+        if (a.fw > b.fw) return 1;
+        return 0;
+      }
+    }
+  }
+
+}
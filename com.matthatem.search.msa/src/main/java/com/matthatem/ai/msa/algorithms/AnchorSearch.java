@@ -0,0 +1,316 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.matthatem.ai.msa.algorithms;
+
+import java.io.ByteArrayInputStream;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import com.matthatem.ai.msa.MSA;
+import com.matthatem.ai.msa.MSA.MSANode;
+import com.matthatem.ai.msa.MSA.MSAState;
+
+
+/**
+ * Splits an instance at anchors and solves the pieces independently.
+ * An anchor is the middle column of a block of conserved columns, where
+ * the optimal pairwise alignments of all pairs of sequences agree.  The
+ * anchor columns are fixed and the segments between them are solved as
+ * separate instances with A* in parallel.  An anchor column matches all
+ * sequences, so the gap state of a segment does not depend on its 
+ * neighbors and the cost of the joined alignment is the sum of the 
+ * segment and anchor column costs.
+ * 
+ * The joined alignment is not necessarily optimal.  In exact mode its
+ * cost is used as an upper bound for A* on the whole instance, which
+ * proves it optimal or finds a better alignment.  The proof searches the
+ * whole instance and is not restricted to the regions around the
+ * anchors, so exact mode costs at least as much as plain A* with that
+ * upper bound and is not a decomposition speedup.
+ * 
+ * Only penalized terminal gaps are supported, since the ends of a 
+ * segment are not terminal in the whole instance.
+ *
+ * @author Matthew Hatem
+ */
+public final class AnchorSearch implements SearchAlgorithm {
+  
+  private static final int MIN_BLOCK = 5;
+  
+  private List<MSAState> path = new ArrayList<MSAState>(3);
+  private MSA domain;
+  private int numSeqs;
+  private int numThreads;
+  private boolean exact;
+  private long expanded;
+  private long generated;
+  
+  /**
+   * The constructor.
+   * 
+   * @param domain the search domain
+   * @param numThreads the number of threads solving segments
+   * @param exact prove the joined alignment optimal
+   */
+  public AnchorSearch(final MSA domain, int numThreads, boolean exact) {
+    this.domain = domain;
+    this.numSeqs = domain.getNumSeqs();
+    this.numThreads = numThreads;
+    this.exact = exact;
+  }
+  
+  /* (non-Javadoc)
+   * @see edu.unh.ai.search.SearchAlgorithm#search(java.lang.Object)
+   */
+  public SearchResult<MSAState> search() {
+    List<int[]> anchors = findAnchors();
+    
+    // solve the segments between the anchors
+    List<Segment> segments = new ArrayList<Segment>();
+    int from[] = new int[numSeqs];
+    for (int i=0; i<numSeqs; i++) {
+      from[i] = 1;
+    }
+    for (int a=0; a<=anchors.size(); a++) {
+      int to[] = new int[numSeqs];
+      for (int i=0; i<numSeqs; i++) {
+        to[i] = a < anchors.size() 
+            ? anchors.get(a)[i] - 1 : domain.getSequenceLength(i);
+      }
+      segments.add(new Segment(from, to));
+      from = new int[numSeqs];
+      for (int i=0; i<numSeqs; i++) {
+        from[i] = to[i] + 2;
+      }
+    }
+    ExecutorService executor = Executors.newFixedThreadPool(numThreads);
+    try {
+      for (Future<Void> f : executor.invokeAll(segments)) {
+        f.get();
+      }
+    } catch (InterruptedException e) {
+      throw new RuntimeException(e);
+    } catch (ExecutionException e) {
+      throw new RuntimeException(e.getCause());
+    }
+    executor.shutdown();
+    
+    MSANode goal = join(segments);
+    double cost = goal.g;
+    double joined = cost;
+    
+    // prove the joined alignment optimal
+    long proofExpanded = 0;
+    if (exact && segments.size() > 1) {
+      domain.setUpperBound(Math.min(domain.getUpperBound(), joined));
+      SearchResult<MSAState> proof = new Astar(domain).search();
+      proofExpanded = (long)proof.getExpanded();
+      if (domain.goal != null && domain.goal.g < joined) {
+        goal = domain.goal;
+        cost = goal.g;
+      }
+    }
+    
+    domain.goal = goal;
+    for (MSANode p = goal; p != null; p = p.parent) {
+      path.add(domain.unpack(p.packed, p.e));
+    }
+    
+    SearchResult<MSAState> result = 
+        new SearchResult<MSAState>(path, expanded, generated);
+    result.setProperty("anchors", anchors.size());
+    result.setProperty("joined cost", Double.toString(joined));
+    result.setProperty("threads", numThreads);
+    if (exact) {
+      result.setProperty("proof expansions", Long.toString(proofExpanded));
+    }
+    result.setCost(cost);
+    return result;
+  }
+  
+  /*
+   * Finds the anchors, the residue of each sequence in the middle column
+   * of every block of consecutive columns where all optimal pairwise
+   * alignments agree.  The residues left between anchors are not empty
+   * in any sequence.
+   */
+  private List<int[]> findAnchors() {
+    int align[][][] = new int[numSeqs][][];
+    for (int i=1; i<numSeqs; i++) {
+      align[i] = new int[i][];
+      for (int j=0; j<i; j++) {
+        align[i][j] = domain.getPairwiseAlignment(i, j);
+      }
+    }
+    // the residue of each sequence aligned with a residue of sequence 0
+    int len = domain.getSequenceLength(0);
+    int col[][] = new int[len+1][numSeqs];
+    for (int i=1; i<numSeqs; i++) {
+      for (int x=1; x<align[i][0].length; x++) {
+        col[align[i][0][x]][i] = x;
+      }
+    }
+    
+    List<int[]> anchors = new ArrayList<int[]>();
+    int last[] = new int[numSeqs];
+    int run = 0;
+    for (int y=1; y<=len; y++) {
+      if (!isConserved(align, col[y], y)) {
+        addAnchor(anchors, last, col, y - 1, run);
+        run = 0;
+        continue;
+      }
+      // a block continues only if no sequence skips a residue
+      for (int i=1; i<numSeqs && run > 0; i++) {
+        if (col[y][i] != col[y-1][i] + 1) {
+          addAnchor(anchors, last, col, y - 1, run);
+          run = 0;
+        }
+      }
+      run++;
+    }
+    addAnchor(anchors, last, col, len, run);
+    return anchors;
+  }
+  
+  private boolean isConserved(int align[][][], int col[], int y) {
+    col[0] = y;
+    for (int i=1; i<numSeqs; i++) {
+      if (col[i] == 0) {
+        return false;
+      }
+      for (int j=1; j<i; j++) {
+        if (align[i][j][col[i]] != col[j]) {
+          return false;
+        }
+      }
+    }
+    return true;
+  }
+  
+  /*
+   * Adds the middle column of the block of run columns that ends with 
+   * residue end of sequence 0.
+   */
+  private void addAnchor(List<int[]> anchors, int last[], int cols[][], 
+      int end, int run) {
+    if (run < MIN_BLOCK) {
+      return;
+    }
+    int col[] = cols[end - run/2];
+    for (int i=0; i<numSeqs; i++) {
+      if (col[i] < last[i] + 2 || col[i] >= domain.getSequenceLength(i)) {
+        return;
+      }
+    }
+    anchors.add(col.clone());
+    System.arraycopy(col, 0, last, 0, numSeqs);
+  }
+  
+  /*
+   * Joins the alignments of the segments and the anchor columns into a 
+   * path of the whole instance.  The g values are the costs in the 
+   * whole instance.
+   */
+  private MSANode join(List<Segment> segments) {
+    MSAState state = domain.copy(domain.initial());
+    MSANode node = domain.initialNode();
+    for (int s=0; s<segments.size(); s++) {
+      Segment segment = segments.get(s);
+      expanded += segment.expanded;
+      generated += segment.generated;
+      List<MSANode> nodes = new ArrayList<MSANode>();
+      for (MSANode p = segment.goal; p.parent != null; p = p.parent) {
+        nodes.add(0, p);
+      }
+      for (MSANode p : nodes) {
+        int e = 0;
+        for (int i=0; i<numSeqs; i++) {
+          if ((p.e & (1 << i)) > 0) {
+            e |= 1 << segment.index[i];
+          }
+        }
+        node = extend(state, node, e);
+      }
+      // the anchor column
+      if (s < segments.size() - 1) {
+        node = extend(state, node, domain.getNumOps());
+      }
+    }
+    return node;
+  }
+  
+  private MSANode extend(MSAState state, MSANode parent, int e) {
+    MSANode node = new MSANode();
+    node.g = parent.g + domain.getEdgeCost(state, e);
+    for (int i=0; i<numSeqs; i++) {
+      state.pos[i] += (e >> i) & 1;
+    }
+    state.e = (byte)e;
+    node.f = node.g;
+    node.packed = domain.pack(state);
+    node.e = (byte)e;
+    node.parent = parent;
+    return node;
+  }
+  
+  /*
+   * A segment between two anchors solved as a separate instance.
+   */
+  private final class Segment implements Callable<Void> {
+    private int from[], to[];
+    private int index[];
+    private MSANode goal;
+    private long expanded;
+    private long generated;
+    public Segment(int from[], int to[]) {
+      this.from = from;
+      this.to = to;
+    }
+    public Void call() throws Exception {
+      StringBuffer sb = new StringBuffer();
+      Map<String, Integer> ids = new HashMap<String, Integer>();
+      for (int i=0; i<numSeqs; i++) {
+        String id = domain.getSequenceID(i);
+        String seq = domain.getSequence(id);
+        sb.append("# "+id+"\n");
+        sb.append(seq.substring(from[i]-1, to[i])+"\n");
+        ids.put(id, i);
+      }
+      MSA msa = new MSA(new ByteArrayInputStream(sb.toString().getBytes()), 
+          MSA.HEURISTICS.H2D, true, 1);
+      // map the sequences of the segment to the whole instance
+      index = new int[numSeqs];
+      for (int i=0; i<numSeqs; i++) {
+        index[i] = ids.get(msa.getSequenceID(i));
+      }
+      SearchResult<MSAState> result = new Astar(msa).search();
+      expanded = (long)result.getExpanded();
+      generated = (long)result.getGenerated();
+      goal = msa.goal;
+      return null;
+    }
+  }
+  
+}
@@ -29,7 +29,14 @@ import com.matthatem.ai.msa.collections.Indexable;
 
 
 /**
- * An implementation of A* tailored to the MSA domain.
+ * An implementation of A* tailored to the MSA domain.  With immediate
+ * expansion, children whose f value is no larger than the f value of 
+ * their parent are expanded right away from a stack instead of going 
+ * through the open list.  These children are among the best on the open
+ * list anyway.  If the domain evaluates the heuristic lazily, nodes are 
+ * ordered on the cheap heuristic until they reach the top of the open
+ * list.  The configured heuristic is then computed and the node goes
+ * back on the open list if its f value went up.
  * 
  * @author Matthew Hatem
  */
@@ -37,11 +44,17 @@ public final class Astar implements SearchAlgorithm {
   
   private LongObjectOpenHashMap closed[];
   private BinHeap<MNH> open = new BinHeap<MNH>(new NodeComparator());
+  private List<MNH> stack = new ArrayList<MNH>();
   private List<MSAState> path = new ArrayList<MSAState>(3);
   private MSA domain;
   private long expanded;
   private long generated;
   private long duplicates;
+  private long immediate;
+  private long evaluated;
+  private long reinserted;
+  private boolean lazy;
+  private boolean immediateExpansion;
   private MSAState state;
   private MSANode children[];
   
@@ -51,7 +64,20 @@ public final class Astar implements SearchAlgorithm {
    * @param domain the search domain
    */
   public Astar(final MSA domain) {
+    this(domain, false);
+  }
+  
+  /**
+   * The constructor.
+   * 
+   * @param domain the search domain
+   * @param immediateExpansion expand children with the f of their parent
+   * right away
+   */
+  public Astar(final MSA domain, boolean immediateExpansion) {
     this.domain = domain;
+    this.immediateExpansion = immediateExpansion;
+    this.lazy = domain.hasLazyHeuristic();
     this.children = new MSANode[domain.getNumOps()];
     this.closed = new LongObjectOpenHashMap[domain.getNumOps()+1];
     this.closed[domain.getNumOps()] = new LongObjectOpenHashMap<MNH>(); // root op
@@ -70,9 +96,22 @@ public final class Astar implements SearchAlgorithm {
     MSANode initNode = domain.initialNode();    
     open(new MNH(initNode));
     
-    while (!open.isEmpty() && path.isEmpty()) {  
-      MNH mnh = open.poll();
+    while ((!open.isEmpty() || !stack.isEmpty()) && path.isEmpty()) {  
+      MNH mnh = stack.isEmpty() ? open.poll() : stack.remove(stack.size()-1);
+      mnh.onStack = false;
       MSANode n = mnh.node;
+      if (mnh.lazy) {
+        mnh.lazy = false;
+        evaluated++;
+        domain.unpack(n.packed, n.e, state);
+        double f = n.g + domain.getLazyH(state);
+        if (f > n.f) {
+          n.f = f;
+          open.add(mnh);
+          reinserted++;
+          continue;
+        }
+      }
       if (n == domain.goal) {
         cost = n.g;
         for (MSANode p = n; p != null; p = p.parent) {
@@ -96,12 +135,23 @@ public final class Astar implements SearchAlgorithm {
             continue;
           }
           else {
-            dup.node.f = child.f;
+            // keep the heuristic computed lazily
+            dup.node.f = lazy 
+                ? child.g + Math.max(child.f - child.g, dup.node.f - dup.node.g)
+                : child.f;
             dup.node.g = child.g;
             dup.node.parent = child.parent;
             if (dup.index != -1) {
               open.update(dup.index);
             }
+            else if (dup.onStack) {
+              continue; // updated in place, expanded when popped
+            }
+            else if (immediateExpansion && child.f <= n.f) {
+              dup.onStack = true;
+              stack.add(dup);
+              immediate++;
+            }
             else {
               open.add(dup);
             }
@@ -109,7 +159,16 @@ public final class Astar implements SearchAlgorithm {
         }
         // no duplicates
         else {
-          open(new MNH(child));
+          if (immediateExpansion && child.f <= n.f) {
+            MNH c = new MNH(child);
+            closed[child.e].put(child.packed, c);
+            c.onStack = true;
+            stack.add(c);
+            immediate++;
+          }
+          else {
+            open(new MNH(child));
+          }
           generated++;
         }        
       }
@@ -118,6 +177,13 @@ public final class Astar implements SearchAlgorithm {
     SearchResult<MSAState> result = 
         new SearchResult<MSAState>(path, expanded, generated);
     result.setProperty("duplicates", Long.toString(duplicates));
+    if (immediateExpansion) {
+      result.setProperty("immediate expansions", Long.toString(immediate));
+    }
+    if (lazy) {
+      result.setProperty("lazy evaluations", Long.toString(evaluated));
+      result.setProperty("reinserted", Long.toString(reinserted));
+    }
     result.setCost(cost);
     return result;
   }
@@ -132,7 +198,9 @@ public final class Astar implements SearchAlgorithm {
    */
   private final class MNH implements Indexable {
     private MSANode node;
+    private boolean lazy = Astar.this.lazy;
     private int index = -1;
+    private boolean onStack;
     public MNH(MSANode node) {
       this.node = node;
     }
@@ -0,0 +1,479 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.matthatem.ai.msa.algorithms;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import com.matthatem.ai.msa.MSA;
+import com.matthatem.ai.msa.MSA.MSANode;
+import com.matthatem.ai.msa.MSA.MSAState;
+import com.matthatem.ai.msa.collections.LayerBuffer;
+
+
+/**
+ * An implementation of breadth-first heuristic search (BFHS) tailored to
+ * the MSA domain.  Every move advances the sum of the sequence positions
+ * by 1 to k, so the lattice is searched one layer at a time and only the
+ * current layer and the next k layers are kept in memory.  Nodes with f
+ * above the upper bound are pruned.  Each layer is sorted to remove
+ * duplicates and then expanded in parallel, each thread writing its
+ * children to its own buffers.
+ *
+ * Nodes do not keep parent pointers, instead each node remembers the
+ * node where its path crossed the middle layer (the relay) and the
+ * solution is rebuilt by recursively solving the two halves.  If no
+ * upper bound is given the search is repeated with an increasing bound,
+ * starting with the heuristic value of the root.
+ *
+ * @author Matthew Hatem
+ */
+public final class BFHS implements SearchAlgorithm {
+
+  /*
+   * Segments spanning fewer layers keep parent pointers.
+   */
+  private static final int MIN_SPAN = 32;
+
+  /*
+   * Layers with fewer nodes are expanded by the calling thread.
+   */
+  private static final int MIN_PARALLEL = 512;
+
+  private static final int RELAY_SHIFT = 40;
+  private static final long NONE = -1;
+
+  private List<MSAState> path = new ArrayList<MSAState>(3);
+  private MSA domain;
+  private int numSeqs;
+  private int numThreads;
+  private double upperBound;
+  private long expanded;
+  private long generated;
+  private long duplicates;
+  private long peak;
+  private int segments;
+  private double lastBound;
+  private int targetPos[];
+  private LayerBuffer layers[];
+  private Expander workers[];
+  private List<MSANode> nodes = new ArrayList<MSANode>();
+  private ExecutorService executor;
+
+  /**
+   * The constructor.  The upper bound is found iteratively.
+   *
+   * @param domain the search domain
+   * @param numThreads the number of threads
+   */
+  public BFHS(final MSA domain, int numThreads) {
+    this(domain, numThreads, Double.NaN);
+  }
+
+  /**
+   * The constructor.
+   *
+   * @param domain the search domain
+   * @param numThreads the number of threads
+   * @param upperBound the upper bound on the solution cost
+   */
+  public BFHS(final MSA domain, int numThreads, double upperBound) {
+    this.domain = domain;
+    this.numSeqs = domain.getNumSeqs();
+    this.numThreads = Math.max(1, numThreads);
+    this.upperBound = upperBound;
+    this.targetPos = new int[numSeqs];
+    this.layers = new LayerBuffer[numSeqs+1];
+    for (int i=0; i<layers.length; i++) {
+      layers[i] = new LayerBuffer();
+    }
+    this.workers = new Expander[this.numThreads];
+    for (int i=0; i<workers.length; i++) {
+      workers[i] = new Expander(i);
+    }
+  }
+
+  /* (non-Javadoc)
+   * @see edu.unh.ai.search.SearchAlgorithm#search(java.lang.Object)
+   */
+  public SearchResult<MSAState> search() {
+    double cost = 0;
+    MSANode initNode = domain.initialNode();
+    executor = Executors.newFixedThreadPool(numThreads);
+
+    double bound = upperBound;
+    if (Double.isNaN(bound)) {
+      bound = initNode.f;
+    }
+    Target goal = segment(initNode, domain.getGoalPacked(), -1, 0, bound,
+        Double.isNaN(upperBound));
+    bound = lastBound;
+    if (goal != null) {
+      cost = goal.node.g;
+      List<MSANode> nodes = reconstruct(initNode, goal, -1, 0);
+      MSANode parent = null;
+      for (MSANode n : nodes) {
+        n.parent = parent;
+        parent = n;
+      }
+      parent.g = cost;
+      domain.goal = parent;
+      for (MSANode p = parent; p != null; p = p.parent) {
+        path.add(domain.unpack(p.packed, p.e));
+      }
+    }
+    executor.shutdown();
+
+    SearchResult<MSAState> result =
+        new SearchResult<MSAState>(path, expanded, generated);
+    result.setProperty("duplicates", Long.toString(duplicates));
+    result.setProperty("peak stored", Long.toString(peak));
+    result.setProperty("segments", segments);
+    result.setProperty("upper bound", Double.toString(bound));
+    result.setProperty("threads", numThreads);
+    result.setCost(cost);
+    return result;
+  }
+
+  /*
+   * Rebuilds the path from start to goal, where goal is the target
+   * returned by the search for this segment.  Returns the nodes along
+   * the path, including the start node.
+   */
+  private List<MSANode> reconstruct(MSANode start, Target goal, int targetE,
+      double targetH) {
+    List<MSANode> nodes;
+    if (goal.relay == null) {
+      nodes = new ArrayList<MSANode>();
+      for (MSANode p = goal.node; p != null; p = p.parent) {
+        nodes.add(0, copy(p));
+      }
+      return nodes;
+    }
+    MSANode relay = goal.relay;
+    double relayH = relay.f - relay.g;
+    double cost = goal.node.g;
+
+    // solve the first half
+    Target first = segment(start, relay.packed, relay.e, relayH, relay.g,
+        true);
+    nodes = reconstruct(start, first, relay.e, relayH);
+
+    // solve the second half
+    MSANode mid = copy(relay);
+    mid.g = 0;
+    Target second = segment(mid, goal.node.packed, targetE, targetH,
+        cost - relay.g, true);
+    List<MSANode> tail = reconstruct(mid, second, targetE, targetH);
+    nodes.addAll(tail.subList(1, tail.size()));
+    return nodes;
+  }
+
+  /*
+   * Solves a segment within the bound.  If no path is found and grow is
+   * true then the search is repeated with a larger bound, at least the
+   * smallest f value pruned by the previous iteration.  Segments of the
+   * solution have a known cost, but the adjusted heuristic is only
+   * admissible if the heuristic is consistent.
+   */
+  private Target segment(MSANode start, long target, int targetE,
+      double targetH, double bound, boolean grow) {
+    double base = bound;
+    for (;;) {
+      lastBound = bound;
+      Target goal = search(start, target, targetE, targetH, bound);
+      if (goal != null || !grow) {
+        return goal;
+      }
+      double minPruned = Double.POSITIVE_INFINITY;
+      for (Expander w : workers) {
+        minPruned = Math.min(minPruned, w.minPruned);
+      }
+      if (minPruned == Double.POSITIVE_INFINITY) {
+        return null;
+      }
+      bound = Math.max(minPruned, base + 2 * (bound - base));
+    }
+  }
+
+  /*
+   * Searches for the cheapest path from the start node to the target
+   * state, one layer at a time.  If targetE is not negative then the
+   * target must be reached along the edge targetE.  The global heuristic
+   * is adjusted by the heuristic value of the target (targetH) and nodes
+   * with f greater than bound are pruned.
+   */
+  private Target search(MSANode startNode, long target, int targetE,
+      double targetH, double bound) {
+    segments++;
+    MSAState start = domain.unpack(startNode.packed, startNode.e);
+    MSAState end = domain.unpack(target, (byte)0);
+    int span = 0;
+    for (int i=0; i<numSeqs; i++) {
+      targetPos[i] = end.pos[i];
+      span += targetPos[i] - start.pos[i];
+    }
+    boolean parents = span < MIN_SPAN;
+    nodes.clear();
+    for (LayerBuffer layer : layers) {
+      layer.clear();
+    }
+    for (Expander w : workers) {
+      w.reset(span / 2, targetH, bound, parents);
+    }
+    layers[0].add(startNode.packed, startNode.e, 0, NONE);
+
+    Target goal = null;
+    long stored = 1;
+    for (int l=0; l<=span && stored > 0; l++) {
+      LayerBuffer layer = layers[l % layers.length];
+      int removed = layer.merge();
+      duplicates += removed;
+      stored -= removed;
+      if (l == span) {
+        goal = target(layer, targetE);
+        break;
+      }
+      expand(layer, l, parents);
+
+      // gather the children of this layer
+      stored -= layer.size();
+      layer.clear();
+      for (Expander w : workers) {
+        for (int d=1; d<=numSeqs; d++) {
+          LayerBuffer out = w.out[d];
+          layers[(l+d) % layers.length].addAll(out);
+          stored += out.size();
+          out.clear();
+        }
+      }
+      if (stored > peak) {
+        peak = stored;
+      }
+    }
+    return goal;
+  }
+
+  /*
+   * Expands every node in the layer, splitting the layer between the
+   * workers if it is large enough.
+   */
+  private void expand(LayerBuffer layer, int l, boolean parents) {
+    int size = layer.size();
+    if (parents || numThreads == 1 || size < MIN_PARALLEL) {
+      workers[0].set(layer, l, 0, size);
+      workers[0].call();
+    }
+    else {
+      int chunk = (size + numThreads - 1) / numThreads;
+      for (int i=0; i<numThreads; i++) {
+        int lo = Math.min(size, i * chunk);
+        workers[i].set(layer, l, lo, Math.min(size, lo + chunk));
+      }
+      try {
+        for (Future<Void> f : executor.invokeAll(Arrays.asList(workers))) {
+          f.get();
+        }
+      } catch (InterruptedException e) {
+        throw new RuntimeException(e);
+      } catch (ExecutionException e) {
+        throw new RuntimeException(e.getCause());
+      }
+    }
+    for (Expander w : workers) {
+      expanded += w.expanded;
+      generated += w.generated;
+      w.expanded = w.generated = 0;
+    }
+  }
+
+  /*
+   * Returns the cheapest target in the final layer of the segment.
+   */
+  private Target target(LayerBuffer layer, int targetE) {
+    int best = -1;
+    for (int i=0; i<layer.size(); i++) {
+      if (targetE >= 0 && layer.getE(i) != targetE) {
+        continue;
+      }
+      if (best < 0 || layer.getG(i) < layer.getG(best)) {
+        best = i;
+      }
+    }
+    if (best < 0) {
+      return null;
+    }
+    Target goal = new Target();
+    goal.node = new MSANode();
+    goal.node.packed = layer.getPacked(best);
+    goal.node.e = layer.getE(best);
+    goal.node.g = layer.getG(best);
+    long data = layer.getData(best);
+    if (data == NONE) {
+      return goal;
+    }
+    if (workers[0].parents) {
+      goal.node.parent = nodes.get((int)data);
+    }
+    else {
+      LayerBuffer relays = workers[(int)(data >>> RELAY_SHIFT)].relays;
+      int i = (int)(data & ((1L << RELAY_SHIFT) - 1));
+      MSANode relay = new MSANode();
+      relay.packed = relays.getPacked(i);
+      relay.e = relays.getE(i);
+      relay.g = relays.getG(i);
+      relay.f = relay.g + Double.longBitsToDouble(relays.getData(i));
+      goal.relay = relay;
+    }
+    return goal;
+  }
+
+  private MSANode copy(MSANode node) {
+    MSANode copy = new MSANode();
+    copy.packed = node.packed;
+    copy.e = node.e;
+    copy.g = node.g;
+    copy.f = node.f;
+    return copy;
+  }
+
+  /*
+   * The result of a segment search.  The target node either has a chain
+   * of parents or the relay where its path crossed the middle layer.
+   */
+  private static final class Target {
+    private MSANode node;
+    private MSANode relay;
+  }
+
+  /*
+   * Expands a slice of a layer.  Each worker has its own state, children
+   * and output buffers, indexed by the number of layers a child advances.
+   * Relays are kept in a buffer per worker and referenced by the worker
+   * id and the index in that buffer.
+   */
+  private final class Expander implements Callable<Void> {
+    private int id;
+    private MSAState state;
+    private MSANode parent = new MSANode();
+    private MSANode children[];
+    private LayerBuffer out[];
+    private LayerBuffer relays = new LayerBuffer();
+    private LayerBuffer layer;
+    private int l, lo, hi, mid;
+    private double targetH, bound;
+    private double minPruned;
+    private boolean parents;
+    private long expanded;
+    private long generated;
+
+    public Expander(int id) {
+      this.id = id;
+      this.state = domain.copy(domain.initial());
+      this.children = new MSANode[domain.getNumOps()];
+      for (int i=0; i<children.length; i++) {
+        children[i] = new MSANode();
+      }
+      this.out = new LayerBuffer[numSeqs+1];
+      for (int i=1; i<out.length; i++) {
+        out[i] = new LayerBuffer();
+      }
+    }
+
+    public void reset(int mid, double targetH, double bound,
+        boolean parents) {
+      this.mid = mid;
+      this.targetH = targetH;
+      this.bound = bound;
+      this.parents = parents;
+      this.minPruned = Double.POSITIVE_INFINITY;
+      relays.clear();
+    }
+
+    public void set(LayerBuffer layer, int l, int lo, int hi) {
+      this.layer = layer;
+      this.l = l;
+      this.lo = lo;
+      this.hi = hi;
+    }
+
+    public Void call() {
+      for (int n=lo; n<hi; n++) {
+        expand(n);
+      }
+      return null;
+    }
+
+    private void expand(int n) {
+      expanded++;
+      parent.packed = layer.getPacked(n);
+      parent.e = layer.getE(n);
+      parent.g = layer.getG(n);
+      long data = layer.getData(n);
+      if (parents) {
+        MSANode p = copy(parent);
+        p.parent = (data == NONE) ? null : nodes.get((int)data);
+        data = nodes.size();
+        nodes.add(p);
+      }
+      domain.unpack(parent.packed, parent.e, state);
+      int count = domain.expand(state, parent, children);
+
+      for (int i=0; i<count; i++) {
+        MSANode child = children[i];
+        if (!inside(child.packed)) {
+          continue;
+        }
+        double h = child.f - child.g;
+        double f = child.g + Math.max(0, h - targetH);
+        if (f > bound) {
+          if (f < minPruned) {
+            minPruned = f;
+          }
+          continue;
+        }
+        int d = Integer.bitCount(child.e);
+        long childData = data;
+        if (!parents && l < mid && l + d >= mid) {
+          childData = ((long)id << RELAY_SHIFT) | relays.size();
+          relays.add(child.packed, child.e, child.g,
+              Double.doubleToLongBits(h));
+        }
+        out[d].add(child.packed, child.e, child.g, childData);
+        generated++;
+      }
+    }
+
+    /*
+     * Returns true if the packed state lies within the current segment.
+     */
+    private boolean inside(long packed) {
+      for (int i=numSeqs-1; i>=0; i--) {
+        if (((int) packed & 0x3FF) > targetPos[i]) return false;
+        packed >>= 10;
+      }
+      return true;
+    }
+  }
+
+}
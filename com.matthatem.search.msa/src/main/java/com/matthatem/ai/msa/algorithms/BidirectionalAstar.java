@@ -0,0 +1,266 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.matthatem.ai.msa.algorithms;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+
+import com.carrotsearch.hppc.LongLongOpenHashMap;
+import com.carrotsearch.hppc.LongObjectOpenHashMap;
+import com.matthatem.ai.msa.MSA;
+import com.matthatem.ai.msa.MSA.MSANode;
+import com.matthatem.ai.msa.MSA.MSAState;
+import com.matthatem.ai.msa.collections.BinHeap;
+import com.matthatem.ai.msa.collections.Indexable;
+
+
+/**
+ * An implementation of bidirectional A* tailored to the MSA domain.  A
+ * forward search from the initial state and a reverse search from the
+ * goal are interleaved, always expanding the direction with the smaller
+ * open list.  The reverse search is guided by the domain heuristic 
+ * computed over the reversed sequences, a lower bound on the cost from 
+ * the start.  Every node generated in one direction is matched against
+ * the nodes of the other direction at the same position, which gives 
+ * the cost of the best solution found so far.  Nodes that cannot improve
+ * on it are pruned and the search stops when the smallest f value of
+ * either direction is no better.
+ * 
+ * @author Matthew Hatem
+ */
+public final class BidirectionalAstar implements SearchAlgorithm {
+  
+  private static final int FORWARD = 0;
+  private static final int REVERSE = 1;
+  
+  private LongObjectOpenHashMap closed[][];
+  private LongLongOpenHashMap edges[];
+  private BinHeap<MNH> open[];
+  private List<MSAState> path = new ArrayList<MSAState>(3);
+  private MSA domain;
+  private long expanded[] = new long[2];
+  private long generated;
+  private long duplicates;
+  private long pruned;
+  private double incumbent = Double.POSITIVE_INFINITY;
+  private MSANode meetF, meetR;
+  private MSAState state;
+  private MSANode children[];
+  
+  /**
+   * The constructor.
+   * 
+   * @param domain the search domain
+   */
+  @SuppressWarnings("unchecked")
+  public BidirectionalAstar(final MSA domain) {
+    this.domain = domain;
+    domain.initReverse();
+    this.children = new MSANode[domain.getNumOps()];
+    for (int i=0; i<this.children.length; i++) {
+      this.children[i] = new MSANode();
+    }
+    this.closed = new LongObjectOpenHashMap[2][domain.getNumOps()+1];
+    this.edges = new LongLongOpenHashMap[2];
+    this.open = new BinHeap[2];
+    for (int d=0; d<2; d++) {
+      for (int i=0; i<=domain.getNumOps(); i++) {
+        this.closed[d][i] = new LongObjectOpenHashMap<MNH>();
+      }
+      this.edges[d] = new LongLongOpenHashMap();
+      this.open[d] = new BinHeap<MNH>(new NodeComparator());
+    }
+  }
+  
+  /* (non-Javadoc)
+   * @see edu.unh.ai.search.SearchAlgorithm#search(java.lang.Object)
+   */
+  public SearchResult<MSAState> search() {
+    double cost = 0;
+    state = domain.copy(domain.initial());
+    open(FORWARD, new MNH(domain.initialNode()));
+    open(REVERSE, new MNH(domain.goalNode()));
+    
+    while (!open[FORWARD].isEmpty() && !open[REVERSE].isEmpty()) {
+      double lowF = Math.max(open[FORWARD].peek().node.f, 
+          open[REVERSE].peek().node.f);
+      if (lowF >= incumbent) {
+        break;
+      }
+      // expand the direction with fewer open nodes
+      int d = open[FORWARD].size() <= open[REVERSE].size() ? FORWARD : REVERSE;
+      MNH mnh = open[d].poll();
+      MSANode n = mnh.node;
+      if (n.f >= incumbent) {
+        continue;
+      }
+      expanded[d]++;
+      
+      domain.unpack(n.packed, n.e, state);
+      int count = d == FORWARD 
+          ? domain.expand(state, n, children)
+          : domain.expandReverse(state, n, children);
+      
+      for (int i=0; i<count; i++) {        
+        MSANode child = children[i];
+        // prune nodes that cannot improve the incumbent
+        if (child.f >= incumbent) {
+          pruned++;
+          continue;
+        }
+        children[i] = new MSANode(); // reset!
+        // merge duplicates
+        MNH dup = (MNH)closed[d][child.e].get(child.packed);
+        if (dup != null) {
+          duplicates++;
+          if (child.g >= dup.node.g) {
+            continue;
+          }
+          dup.node.f = child.f;
+          dup.node.g = child.g;
+          dup.node.parent = child.parent;
+          if (dup.index != -1) {
+            open[d].update(dup.index);
+          }
+          else {
+            open[d].add(dup);
+          }
+          child = dup.node;
+        }
+        // no duplicates
+        else {
+          open(d, new MNH(child));
+          generated++;
+        }
+        meet(d, child);
+      }
+    }
+    
+    if (meetF != null) {
+      cost = incumbent;
+      domain.goal = join();
+      for (MSANode p = domain.goal; p != null; p = p.parent) {
+        path.add(domain.unpack(p.packed, p.e));
+      }
+    }
+    
+    SearchResult<MSAState> result = 
+        new SearchResult<MSAState>(path, expanded[0]+expanded[1], generated);
+    result.setProperty("duplicates", Long.toString(duplicates));
+    result.setProperty("pruned", Long.toString(pruned));
+    result.setProperty("forward expansions", Long.toString(expanded[FORWARD]));
+    result.setProperty("reverse expansions", Long.toString(expanded[REVERSE]));
+    result.setCost(cost);
+    return result;
+  }
+  
+  /*
+   * Matches a node against the nodes of the other direction at the same
+   * position and updates the incumbent solution.
+   */
+  private void meet(int d, MSANode node) {
+    long mask = edges[1-d].get(node.packed);
+    if (mask == 0) {
+      return;
+    }
+    for (int e=0; e<=domain.getNumOps(); e++) {
+      if ((mask & (1L << e)) == 0) {
+        continue;
+      }
+      MSANode other = ((MNH)closed[1-d][e].get(node.packed)).node;
+      MSANode f = d == FORWARD ? node : other;
+      MSANode r = d == FORWARD ? other : node;
+      domain.unpack(f.packed, f.e, state);
+      double cost = f.g + r.g + domain.getJoinCost(state, r.e);
+      if (cost < incumbent) {
+        incumbent = cost;
+        meetF = f;
+        meetR = r;
+      }
+    }
+  }
+  
+  /*
+   * Builds the solution path by appending the path of the reverse search
+   * to the path of the forward search.  The nodes of the reverse search
+   * store the outgoing edge, so each edge moves to the next node.
+   */
+  private MSANode join() {
+    MSANode tail = copy(meetF, null);
+    for (MSANode r = meetR; r.parent != null; r = r.parent) {
+      MSANode node = copy(r.parent, tail);
+      node.e = r.e;
+      node.g = incumbent - r.parent.g;
+      tail = node;
+    }
+    return tail;
+  }
+  
+  private MSANode copy(MSANode node, MSANode parent) {
+    MSANode copy = new MSANode();
+    copy.packed = node.packed;
+    copy.e = node.e;
+    copy.g = node.g;
+    copy.f = node.f;
+    copy.parent = parent == null ? node.parent : parent;
+    return copy;
+  }
+  
+  private void open(int d, MNH mnh) {
+    open[d].add(mnh);
+    closed[d][mnh.node.e].put(mnh.node.packed, mnh);
+    long mask = edges[d].get(mnh.node.packed);
+    edges[d].put(mnh.node.packed, mask | (1L << mnh.node.e));
+  }
+  
+  /*
+   * Wrapper for MSANode to make heapable
+   */
+  private final class MNH implements Indexable {
+    private MSANode node;
+    private int index = -1;
+    public MNH(MSANode node) {
+      this.node = node;
+    }
+    public int getIndex() {
+      return index;
+    }
+    public void setIndex(int index) {
+      this.index = index;
+    }    
+  }
+  
+  /*
+   * The node comparator class
+   */
+  private final class NodeComparator implements Comparator<MNH> {
+    public int compare(final MNH a, final MNH b) {
+      if (a.node.f == b.node.f) { 
+        if (a.node.g > b.node.g) return -1;
+        if (a.node.g < b.node.g) return 1;
+        return 0;
+      }
+      else {
+        if (a.node.f < b.node.f) return -1;
+        if (a.node.f > b.node.f) return 1;
+        return 0;
+      }
+    }    
+  }
+  
+}
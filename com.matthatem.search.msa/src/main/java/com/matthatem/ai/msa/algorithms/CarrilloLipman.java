@@ -0,0 +1,295 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.matthatem.ai.msa.algorithms;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import com.matthatem.ai.msa.GreedyAligner;
+import com.matthatem.ai.msa.MSA;
+import com.matthatem.ai.msa.MSA.MSANode;
+import com.matthatem.ai.msa.MSA.MSAState;
+
+
+/**
+ * A bounded dynamic programming engine for the MSA domain in the spirit
+ * of Carrillo and Lipman.  The lattice is swept in layers, a layer holds
+ * the states with the same sum of sequence positions.  The cost of a
+ * state is only kept for an incoming edge if the cost plus the pairwise
+ * heuristic is within the upper bound, so the sweep is restricted to the
+ * region that can contain an optimal alignment.  The states of a layer
+ * are stored in primitive arrays sorted by their packed position, along
+ * with the cost and the best predecessor edge for every incoming edge.
+ * The alignment is recovered by tracing back from the goal.  There is no
+ * open list or hash table, which makes this a good fit for few similar
+ * sequences where the region is narrow.
+ *
+ * @author Matthew Hatem
+ */
+public final class CarrilloLipman implements SearchAlgorithm {
+
+  private List<Layer> layers = new ArrayList<Layer>();
+  private List<MSAState> path = new ArrayList<MSAState>(3);
+  private MSA domain;
+  private int numSeqs;
+  private int numOps;
+  private long offset[];
+  private double upperBound;
+  private long cells;
+  private long entries;
+  private long pruned;
+  private MSAState state;
+  private MSAState pred;
+
+  /**
+   * The constructor.  The upper bound of the domain is used to bound the
+   * region, if there is none the cost of a greedy alignment is used.
+   *
+   * @param domain the search domain
+   */
+  public CarrilloLipman(final MSA domain) {
+    this.domain = domain;
+    this.numSeqs = domain.getNumSeqs();
+    this.numOps = domain.getNumOps();
+    // the difference between the packed state and its successor
+    this.offset = new long[numOps+1];
+    MSAState s = new MSAState(numSeqs);
+    for (int e = 1; e <= numOps; e++) {
+      for (int j = 0; j < numSeqs; j++) {
+        s.pos[j] = (e >> j) & 1;
+      }
+      offset[e] = domain.pack(s);
+    }
+  }
+
+  /* (non-Javadoc)
+   * @see edu.unh.ai.search.SearchAlgorithm#search(java.lang.Object)
+   */
+  public SearchResult<MSAState> search() {
+    double cost = 0;
+    state = domain.copy(domain.initial());
+    pred = domain.copy(state);
+    upperBound = domain.getUpperBound();
+    if (upperBound == Double.POSITIVE_INFINITY) {
+      upperBound = new GreedyAligner(domain).getCost();
+    }
+
+    // the first layer holds the initial state
+    Layer root = new Layer(1, numOps);
+    root.cells[0] = domain.pack(state);
+    root.g[numOps-1] = 0;
+    root.size = 1;
+    layers.add(root);
+    cells++;
+
+    long goalPacked = domain.getGoalPacked();
+    MSAState goalState = domain.unpack(goalPacked, (byte)0);
+    int depth = 0;
+    for (int i=0; i<numSeqs; i++) {
+      depth += goalState.pos[i];
+    }
+    for (int d=1; d<=depth; d++) {
+      layers.add(sweep(d));
+    }
+
+    // the last layer holds the goal, if it is reachable
+    Layer last = layers.get(depth);
+    if (last.size > 0) {
+      int e = 0;
+      for (int i=1; i<=numOps; i++) {
+        if (e == 0 || last.g[i-1] < last.g[e-1]) {
+          e = i;
+        }
+      }
+      if (last.g[e-1] < Double.POSITIVE_INFINITY) {
+        MSANode goal = traceBack(depth, goalPacked, e);
+        cost = goal.g;
+        domain.goal = goal;
+        for (MSANode p = goal; p != null; p = p.parent) {
+          path.add(domain.unpack(p.packed, p.e));
+        }
+      }
+    }
+
+    SearchResult<MSAState> result =
+        new SearchResult<MSAState>(path, cells, entries);
+    result.setProperty("upper bound", Double.toString(upperBound));
+    result.setProperty("pruned", Long.toString(pruned));
+    result.setCost(cost);
+    return result;
+  }
+
+  /*
+   * Computes the layer at the specified depth from the layers above it.
+   */
+  private Layer sweep(int d) {
+    // collect the successors of the previous layers
+    long succ[] = new long[64];
+    int n = 0;
+    for (int k=1; k<=numSeqs && k<=d; k++) {
+      Layer prev = layers.get(d-k);
+      for (int c=0; c<prev.size; c++) {
+        domain.unpack(prev.cells[c], (byte)0, state);
+        for (int e=1; e<=numOps; e++) {
+          if (Integer.bitCount(e) != k || !canAdvance(state, e)) {
+            continue;
+          }
+          if (n == succ.length) {
+            succ = Arrays.copyOf(succ, n*2);
+          }
+          succ[n++] = prev.cells[c] + offset[e];
+        }
+      }
+    }
+    Arrays.sort(succ, 0, n);
+
+    Layer layer = new Layer(n, numOps);
+    for (int c=0; c<n; c++) {
+      long packed = succ[c];
+      if (c > 0 && packed == succ[c-1]) {
+        continue;
+      }
+      domain.unpack(packed, (byte)0, state);
+      int base = layer.size * numOps;
+      boolean keep = false;
+      for (int e=1; e<=numOps; e++) {
+        int k = Integer.bitCount(e);
+        if (k > d) {
+          continue;
+        }
+        Layer prev = layers.get(d-k);
+        int p = prev.find(packed - offset[e]);
+        if (p < 0) {
+          continue;
+        }
+        // relax the edge from every incoming edge of the predecessor
+        for (int j=0; j<numSeqs; j++) {
+          pred.pos[j] = state.pos[j] - ((e >> j) & 1);
+        }
+        double column = Double.NaN;
+        double best = Double.POSITIVE_INFINITY;
+        int arg = 0;
+        for (int e2=1; e2<=numOps; e2++) {
+          double g = prev.g[p*numOps + e2-1];
+          if (g == Double.POSITIVE_INFINITY) {
+            continue;
+          }
+          pred.e = (byte)e2;
+          double gap = domain.getJoinCost(pred, e);
+          if (Double.isNaN(column)) {
+            column = domain.getEdgeCost(pred, e) - gap;
+          }
+          g += column + gap;
+          if (g < best) {
+            best = g;
+            arg = e2;
+          }
+        }
+        if (best == Double.POSITIVE_INFINITY) {
+          continue;
+        }
+        state.e = (byte)e;
+        if (best + domain.getH(state) > upperBound) {
+          pruned++;
+          continue;
+        }
+        layer.g[base + e-1] = best;
+        layer.back[base + e-1] = (byte)arg;
+        keep = true;
+        entries++;
+      }
+      if (keep) {
+        layer.cells[layer.size++] = packed;
+        cells++;
+      }
+    }
+    layer.trim(numOps);
+    return layer;
+  }
+
+  /*
+   * Returns true if the edge does not advance a sequence past its end.
+   */
+  private boolean canAdvance(MSAState s, int e) {
+    for (int j=0; j<numSeqs; j++) {
+      if (((e >> j) & 1) == 1
+          && s.pos[j] == domain.getSequenceLength(j)) {
+        return false;
+      }
+    }
+    return true;
+  }
+
+  /*
+   * Builds the nodes of the alignment ending in the state at the
+   * specified depth with the incoming edge e.
+   */
+  private MSANode traceBack(int d, long packed, int e) {
+    MSANode nodes[] = new MSANode[d+1];
+    int n = 0;
+    while (true) {
+      Layer layer = layers.get(d);
+      int c = layer.find(packed);
+      MSANode node = new MSANode();
+      node.packed = packed;
+      node.e = (byte)e;
+      node.g = layer.g[c*numOps + e-1];
+      node.f = node.g;
+      nodes[n++] = node;
+      if (d == 0) {
+        break;
+      }
+      int arg = layer.back[c*numOps + e-1];
+      packed -= offset[e];
+      d -= Integer.bitCount(e);
+      e = arg;
+    }
+    for (int i=0; i<n-1; i++) {
+      nodes[i].parent = nodes[i+1];
+    }
+    return nodes[0];
+  }
+
+  /*
+   * The states of a layer sorted by their packed position.  The cost and
+   * the best predecessor edge of a state are stored for every incoming
+   * edge, the cost is infinite if the edge is outside of the region.
+   */
+  private static final class Layer {
+    private long cells[];
+    private double g[];
+    private byte back[];
+    private int size;
+    public Layer(int capacity, int numOps) {
+      cells = new long[capacity];
+      g = new double[capacity*numOps];
+      back = new byte[capacity*numOps];
+      Arrays.fill(g, Double.POSITIVE_INFINITY);
+    }
+    public int find(long packed) {
+      int i = Arrays.binarySearch(cells, 0, size, packed);
+      return i < 0 ? -1 : i;
+    }
+    public void trim(int numOps) {
+      cells = Arrays.copyOf(cells, size);
+      g = Arrays.copyOf(g, size*numOps);
+      back = Arrays.copyOf(back, size*numOps);
+    }
+  }
+
+}
@@ -0,0 +1,271 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.matthatem.ai.msa.algorithms;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+
+import com.carrotsearch.hppc.LongObjectOpenHashMap;
+import com.matthatem.ai.msa.MSA;
+import com.matthatem.ai.msa.MSA.MSANode;
+import com.matthatem.ai.msa.MSA.MSAState;
+import com.matthatem.ai.msa.collections.BinHeap;
+import com.matthatem.ai.msa.collections.Indexable;
+
+
+/**
+ * An implementation of focal search (A*-epsilon) tailored to the MSA
+ * domain.  The domain heuristic must not be weighted.  The focal list
+ * holds the open nodes with f at most w times the lowest f on open and
+ * is ordered by the distance to go.  The open nodes that are not on the
+ * focal list are kept on a pending list ordered by f, so they can be
+ * moved to the focal list as the lowest f rises.
+ *
+ * @author Matthew Hatem
+ */
+public final class FocalSearch implements SearchAlgorithm {
+
+  private LongObjectOpenHashMap closed[];
+  private BinHeap<Handle> open = new BinHeap<Handle>(new NodeComparator());
+  private BinHeap<Handle> pending = new BinHeap<Handle>(new NodeComparator());
+  private BinHeap<Handle> focal = new BinHeap<Handle>(new FocalComparator());
+  private List<MSAState> path = new ArrayList<MSAState>(3);
+  private MSA domain;
+  private double weight;
+  private double bound;
+  private long expanded;
+  private long generated;
+  private long duplicates;
+  private long reopened;
+  private MSAState state;
+  private MSANode children[];
+
+  /**
+   * The constructor.
+   *
+   * @param domain the search domain
+   * @param weight the suboptimality bound
+   */
+  public FocalSearch(final MSA domain, double weight) {
+    this.domain = domain;
+    this.weight = Math.max(1, weight);
+    this.children = new MSANode[domain.getNumOps()];
+    this.closed = new LongObjectOpenHashMap[domain.getNumOps()+1];
+    this.closed[domain.getNumOps()] = new LongObjectOpenHashMap<MNH>(); // root op
+    for (int i=0; i<this.children.length; i++) {
+      this.children[i] = new MSANode();
+      this.closed[i] = new LongObjectOpenHashMap<MNH>();
+    }
+  }
+
+  /* (non-Javadoc)
+   * @see edu.unh.ai.search.SearchAlgorithm#search(java.lang.Object)
+   */
+  public SearchResult<MSAState> search() {
+    double cost = 0;
+    double fmin = 0;
+    state = domain.initial();
+    MSANode initNode = domain.initialNode();
+    bound = weight * initNode.f;
+    MNH root = new MNH(initNode);
+    closed[initNode.e].put(initNode.packed, root);
+    open(root);
+
+    while (!open.isEmpty()) {
+      fmin = open.peek().mnh.node.f;
+      setBound(weight * fmin);
+      MNH mnh = focal.poll().mnh;
+      open.remove(mnh.oHandle.index);
+      MSANode n = mnh.node;
+      if (domain.isGoal(n.packed)) {
+        cost = n.g;
+        domain.goal = n;
+        for (MSANode p = n; p != null; p = p.parent) {
+          path.add(domain.unpack(p.packed, p.e));
+        }
+        break;
+      }
+      expanded++;
+
+      domain.unpack(n.packed, n.e, state);
+      int count = domain.expand(state, n, children);
+
+      for (int i=0; i<count; i++) {
+        MSANode child = children[i];
+        children[i] = new MSANode(); // reset!
+        // merge duplicates
+        MNH dup = (MNH)closed[child.e].get(child.packed);
+        if (dup != null) {
+          duplicates++;
+          if (child.g >= dup.node.g) {
+            continue;
+          }
+          dup.node.f = child.f;
+          dup.node.g = child.g;
+          dup.node.parent = child.parent;
+          if (dup.oHandle.index != -1) {
+            open.update(dup.oHandle.index);
+            if (dup.focal) {
+              focal.update(dup.sHandle.index);
+            }
+            else if (dup.node.f <= bound) {
+              pending.remove(dup.sHandle.index);
+              dup.focal = true;
+              focal.add(dup.sHandle);
+            }
+            else {
+              pending.update(dup.sHandle.index);
+            }
+          }
+          else {
+            reopened++;
+            open(dup);
+          }
+        }
+        // no duplicates
+        else {
+          MNH c = new MNH(child);
+          closed[child.e].put(child.packed, c);
+          open(c);
+          generated++;
+        }
+      }
+    }
+
+    SearchResult<MSAState> result =
+        new SearchResult<MSAState>(path, expanded, generated);
+    result.setProperty("duplicates", Long.toString(duplicates));
+    result.setProperty("reopened", Long.toString(reopened));
+    result.setProperty("proven bound", Double.toString(cost / fmin));
+    result.setCost(cost);
+    return result;
+  }
+
+  /*
+   * Updates the focal bound.  Nodes move from the pending list to the
+   * focal list when the bound rises, and back if it falls.
+   */
+  private void setBound(double newBound) {
+    if (newBound > bound) {
+      while (!pending.isEmpty() && pending.peek().mnh.node.f <= newBound) {
+        MNH mnh = pending.poll().mnh;
+        mnh.focal = true;
+        focal.add(mnh.sHandle);
+      }
+    }
+    else if (newBound < bound) {
+      List<Handle> handles = new ArrayList<Handle>();
+      while (!focal.isEmpty()) {
+        Handle h = focal.poll();
+        if (h.mnh.node.f <= newBound) {
+          handles.add(h);
+        }
+        else {
+          h.mnh.focal = false;
+          pending.add(h);
+        }
+      }
+      for (Handle h : handles) {
+        focal.add(h);
+      }
+    }
+    bound = newBound;
+  }
+
+  private void open(MNH mnh) {
+    open.add(mnh.oHandle);
+    if (mnh.node.f <= bound) {
+      mnh.focal = true;
+      focal.add(mnh.sHandle);
+    }
+    else {
+      mnh.focal = false;
+      pending.add(mnh.sHandle);
+    }
+  }
+
+  /*
+   * Wrapper for MSANode.  The node is kept on the open list and on either
+   * the focal or the pending list, with a separate handle for each.
+   */
+  private final class MNH {
+    private MSANode node;
+    private int d;
+    private boolean focal;
+    private Handle oHandle = new Handle(this);
+    private Handle sHandle = new Handle(this);
+    public MNH(MSANode node) {
+      this.node = node;
+      this.d = domain.getDistance(node.packed);
+    }
+  }
+
+  /*
+   * The position of a node in one of the lists.
+   */
+  private static final class Handle implements Indexable {
+    private MNH mnh;
+    private int index = -1;
+    public Handle(MNH mnh) {
+      this.mnh = mnh;
+    }
+    public int getIndex() {
+      return index;
+    }
+    public void setIndex(int index) {
+      this.index = index;
+    }
+  }
+
+  /*
+   * Orders nodes by distance to go, breaking ties on f
+   */
+  private final class FocalComparator implements Comparator<Handle> {
+    public int compare(final Handle ha, final Handle hb) {
+      MNH a = ha.mnh, b = hb.mnh;
+      if (a.d != b.d) {
+        return a.d < b.d ? -1 : 1;
+      }
+      if (a.node.f < b.node.f) return -1;
+      if (a.node.f > b.node.f) return 1;
+      if (a.node.g > b.node.g) return -1;
+      if (a.node.g < b.node.g) return 1;
+      return 0;
+    }
+  }
+
+  /*
+   * The node comparator class
+   */
+  private final class NodeComparator implements Comparator<Handle> {
+    public int compare(final Handle ha, final Handle hb) {
+      MSANode a = ha.mnh.node, b = hb.mnh.node;
+      if (a.f == b.f) {
+        if (a.g > b.g) return -1;
+        if (a.g < b.g) return 1;
+        return 0;
+      }
+      else {
+        if (a.f < b.f) return -1;
+        if (a.f > b.f) return 1;
+        return 0;
+      }
+    }
+  }
+
+}
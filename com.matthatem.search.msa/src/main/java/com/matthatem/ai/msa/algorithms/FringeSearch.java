@@ -0,0 +1,185 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.matthatem.ai.msa.algorithms;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import com.carrotsearch.hppc.LongObjectOpenHashMap;
+import com.matthatem.ai.msa.MSA;
+import com.matthatem.ai.msa.MSA.MSANode;
+import com.matthatem.ai.msa.MSA.MSAState;
+
+
+/**
+ * An implementation of fringe search tailored to the MSA domain.  The
+ * open nodes are kept in an unsorted doubly linked list and each
+ * iteration visits the list from front to back.  Nodes with f above the
+ * threshold are left in place for a later iteration, the others are
+ * expanded and their children are inserted right after them so they are
+ * visited in the same iteration.  The threshold of the next iteration is
+ * the smallest f value that was left in place.
+ *
+ * @author Matthew Hatem
+ */
+public final class FringeSearch implements SearchAlgorithm {
+
+  private LongObjectOpenHashMap closed[];
+  private FNH fringe = new FNH(null); // the head of the circular list
+  private List<MSAState> path = new ArrayList<MSAState>(3);
+  private MSA domain;
+  private long expanded;
+  private long generated;
+  private long duplicates;
+  private int iterations;
+  private MSAState state;
+  private MSANode children[];
+
+  /**
+   * The constructor.
+   *
+   * @param domain the search domain
+   */
+  public FringeSearch(final MSA domain) {
+    this.domain = domain;
+    this.children = new MSANode[domain.getNumOps()];
+    this.closed = new LongObjectOpenHashMap[domain.getNumOps()+1];
+    this.closed[domain.getNumOps()] = new LongObjectOpenHashMap<FNH>(); // root op
+    for (int i=0; i<this.children.length; i++) {
+      this.children[i] = new MSANode();
+      this.closed[i] = new LongObjectOpenHashMap<FNH>();
+    }
+    fringe.next = fringe.prev = fringe;
+  }
+
+  /* (non-Javadoc)
+   * @see edu.unh.ai.search.SearchAlgorithm#search(java.lang.Object)
+   */
+  public SearchResult<MSAState> search() {
+    double cost = 0;
+    state = domain.initial();
+    MSANode initNode = domain.initialNode();
+    FNH root = new FNH(initNode);
+    closed[initNode.e].put(initNode.packed, root);
+    insertAfter(fringe, root);
+
+    MSANode goal = null;
+    double threshold = initNode.f;
+    while (fringe.next != fringe && goal == null) {
+      iterations++;
+      double fmin = Double.POSITIVE_INFINITY;
+      FNH fnh = fringe.next;
+      while (fnh != fringe) {
+        MSANode n = fnh.node;
+        // leave the node for a later iteration
+        if (n.f > threshold) {
+          if (n.f < fmin) {
+            fmin = n.f;
+          }
+          fnh = fnh.next;
+          continue;
+        }
+        if (domain.isGoal(n.packed)) {
+          goal = n;
+          break;
+        }
+        expanded++;
+
+        domain.unpack(n.packed, n.e, state);
+        int count = domain.expand(state, n, children);
+
+        FNH tail = fnh;
+        for (int i=0; i<count; i++) {
+          MSANode child = children[i];
+          // merge duplicates
+          FNH dup = (FNH)closed[child.e].get(child.packed);
+          if (dup != null) {
+            duplicates++;
+            if (child.g >= dup.node.g) {
+              continue;
+            }
+            dup.node.f = child.f;
+            dup.node.g = child.g;
+            dup.node.parent = child.parent;
+            if (dup.prev != null) {
+              unlink(dup);
+            }
+            insertAfter(tail, dup);
+            tail = dup;
+          }
+          // no duplicates
+          else {
+            children[i] = new MSANode(); // reset!
+            FNH c = new FNH(child);
+            closed[child.e].put(child.packed, c);
+            insertAfter(tail, c);
+            tail = c;
+            generated++;
+          }
+        }
+
+        // visit the children next
+        FNH next = fnh.next;
+        unlink(fnh);
+        fnh = next;
+      }
+      threshold = fmin;
+    }
+
+    if (goal != null) {
+      cost = goal.g;
+      domain.goal = goal;
+      for (MSANode p = goal; p != null; p = p.parent) {
+        path.add(domain.unpack(p.packed, p.e));
+      }
+    }
+
+    SearchResult<MSAState> result =
+        new SearchResult<MSAState>(path, expanded, generated);
+    result.setProperty("duplicates", Long.toString(duplicates));
+    result.setProperty("iterations", iterations);
+    result.setCost(cost);
+    return result;
+  }
+
+  private void insertAfter(FNH pos, FNH fnh) {
+    fnh.prev = pos;
+    fnh.next = pos.next;
+    pos.next.prev = fnh;
+    pos.next = fnh;
+  }
+
+  private void unlink(FNH fnh) {
+    fnh.prev.next = fnh.next;
+    fnh.next.prev = fnh.prev;
+    fnh.next = fnh.prev = null;
+  }
+
+  /*
+   * Wrapper for MSANode to make it a member of the fringe.  Nodes that
+   * are not on the fringe have null links.
+   */
+  private static final class FNH {
+    private MSANode node;
+    private FNH prev;
+    private FNH next;
+    public FNH(MSANode node) {
+      this.node = node;
+    }
+  }
+
+}
@@ -0,0 +1,398 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.matthatem.ai.msa.algorithms;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+
+import com.carrotsearch.hppc.LongLongOpenHashMap;
+import com.carrotsearch.hppc.LongObjectOpenHashMap;
+import com.matthatem.ai.msa.MSA;
+import com.matthatem.ai.msa.MSA.MSANode;
+import com.matthatem.ai.msa.MSA.MSAState;
+import com.matthatem.ai.msa.collections.BinHeap;
+import com.matthatem.ai.msa.collections.Indexable;
+
+
+/**
+ * An implementation of divide-and-conquer frontier A* tailored to the
+ * MSA domain.  The lattice is a DAG and every predecessor of a node
+ * (pos, e) sits at the same position pos - e, so a node is dropped as
+ * soon as all of its children have been generated and the operator e
+ * is marked as used at the predecessor position.  The used operators
+ * are kept in a single map keyed by position, so they survive the
+ * nodes at that position being dropped and a node regenerated there
+ * never regenerates a dropped child.  Apart from this map only the
+ * frontier is stored and, as in PEA*, children with f above the F value
+ * of their parent are collapsed into the parent.  Nodes do not keep parent
+ * pointers, instead each node remembers the node where its path crossed
+ * the middle layer (the relay).  The solution is rebuilt by recursively
+ * solving the two halves on either side of the relay.
+ *
+ * @author Matthew Hatem
+ */
+public final class FrontierAstar implements SearchAlgorithm {
+
+  /*
+   * Segments spanning this many layers or fewer keep parent pointers.
+   */
+  private static final int MIN_SPAN = 32;
+
+  private List<MSAState> path = new ArrayList<MSAState>(3);
+  private MSA domain;
+  private int numSeqs;
+  private long expanded;
+  private long generated;
+  private long duplicates;
+  private long dropped;
+  private long stored;
+  private long peak;
+  private long peakUsed;
+  private int segments;
+  private MSAState state;
+  private MSANode children[];
+  private int targetPos[];
+
+  /**
+   * The constructor.
+   *
+   * @param domain the search domain
+   */
+  public FrontierAstar(final MSA domain) {
+    this.domain = domain;
+    this.numSeqs = domain.getNumSeqs();
+    this.children = new MSANode[domain.getNumOps()];
+    for (int i=0; i<this.children.length; i++) {
+      this.children[i] = new MSANode();
+    }
+    this.targetPos = new int[numSeqs];
+  }
+
+  /* (non-Javadoc)
+   * @see edu.unh.ai.search.SearchAlgorithm#search(java.lang.Object)
+   */
+  public SearchResult<MSAState> search() {
+    double cost = 0;
+    state = domain.initial();
+    MSANode initNode = domain.initialNode();
+
+    FNH goal = search(initNode, domain.getGoalPacked(), -1, 0,
+        Double.POSITIVE_INFINITY);
+    if (goal != null) {
+      cost = goal.node.g;
+      List<MSANode> nodes = reconstruct(initNode, goal, -1, 0);
+      MSANode parent = null;
+      for (MSANode n : nodes) {
+        n.parent = parent;
+        parent = n;
+      }
+      parent.g = cost;
+      domain.goal = parent;
+      for (MSANode p = parent; p != null; p = p.parent) {
+        path.add(domain.unpack(p.packed, p.e));
+      }
+    }
+
+    SearchResult<MSAState> result =
+        new SearchResult<MSAState>(path, expanded, generated);
+    result.setProperty("duplicates", Long.toString(duplicates));
+    result.setProperty("dropped", Long.toString(dropped));
+    result.setProperty("peak stored", Long.toString(peak));
+    result.setProperty("peak used positions", Long.toString(peakUsed));
+    result.setProperty("segments", segments);
+    result.setCost(cost);
+    return result;
+  }
+
+  /*
+   * Rebuilds the path from start to goal, where goal is the target node
+   * returned by the search for this segment.  Returns the nodes along
+   * the path, including the start node.
+   */
+  private List<MSANode> reconstruct(MSANode start, FNH goal, int targetE,
+      double targetH) {
+    List<MSANode> nodes;
+    if (goal.relay == null) {
+      nodes = new ArrayList<MSANode>();
+      for (MSANode p = goal.node; p != null; p = p.parent) {
+        nodes.add(0, copy(p));
+      }
+      return nodes;
+    }
+    MSANode relay = goal.relay;
+    double relayH = relay.f - relay.g;
+    double cost = goal.node.g;
+
+    // solve the first half
+    FNH first = segment(start, relay.packed, relay.e, relayH, relay.g);
+    nodes = reconstruct(start, first, relay.e, relayH);
+
+    // solve the second half
+    MSANode mid = copy(relay);
+    mid.g = 0;
+    FNH second = segment(mid, goal.node.packed, targetE, targetH,
+        cost - relay.g);
+    List<MSANode> tail = reconstruct(mid, second, targetE, targetH);
+    nodes.addAll(tail.subList(1, tail.size()));
+    return nodes;
+  }
+
+  /*
+   * Solves a segment with a known cost.  The adjusted heuristic is only
+   * admissible if the heuristic is consistent, so the segment is solved
+   * again without the bound if no path is found within the bound.
+   */
+  private FNH segment(MSANode start, long target, int targetE,
+      double targetH, double bound) {
+    FNH goal = search(start, target, targetE, targetH, bound);
+    if (goal == null) {
+      goal = search(start, target, targetE, targetH, Double.POSITIVE_INFINITY);
+    }
+    return goal;
+  }
+
+  /*
+   * Searches for the cheapest path from the start node to the target
+   * state.  If targetE is not negative then the target must be reached
+   * along the edge targetE.  The global heuristic is adjusted by the
+   * heuristic value of the target (targetH) and nodes with f greater
+   * than bound are not stored.
+   */
+  private FNH search(MSANode startNode, long target, int targetE,
+      double targetH, double bound) {
+    segments++;
+    MSAState start = domain.unpack(startNode.packed, startNode.e);
+    MSAState end = domain.unpack(target, (byte)0);
+    int span = 0;
+    for (int i=0; i<numSeqs; i++) {
+      targetPos[i] = end.pos[i];
+      span += targetPos[i] - start.pos[i];
+    }
+    int mid = span / 2;
+    boolean parents = span <= MIN_SPAN;
+
+    LongObjectOpenHashMap frontier[] =
+        new LongObjectOpenHashMap[domain.getNumOps()+1];
+    for (int i=0; i<frontier.length; i++) {
+      frontier[i] = new LongObjectOpenHashMap<FNH>();
+    }
+    LongLongOpenHashMap used = new LongLongOpenHashMap();
+    BinHeap<FNH> open = new BinHeap<FNH>(new NodeComparator());
+
+    MSANode node = copy(startNode);
+    node.g = 0;
+    FNH root = new FNH(node, 0);
+    open.add(root);
+    frontier[node.e].put(node.packed, root);
+    stored++;
+
+    FNH goal = null;
+    while (!open.isEmpty()) {
+      FNH fnh = open.poll();
+      MSANode n = fnh.node;
+      if (n.packed == target && (targetE < 0 || n.e == targetE)) {
+        goal = fnh;
+        break;
+      }
+      expanded++;
+
+      domain.unpack(n.packed, n.e, state);
+      long usedOps = used.get(n.packed);
+      int count = domain.expand(state, n, children);
+
+      double nextF = Double.POSITIVE_INFINITY;
+      for (int i=0; i<count; i++) {
+        MSANode child = children[i];
+        // skip operators leading to nodes that are already closed
+        if ((usedOps & (1L << child.e)) != 0 || !inside(child.packed)) {
+          continue;
+        }
+        double h = child.f - child.g;
+        child.f = child.g + Math.max(0, h - targetH);
+        if (child.f > bound) {
+          continue;
+        }
+        // collapse children that belong to a later expansion
+        if (child.f > fnh.F) {
+          if (child.f < nextF) {
+            nextF = child.f;
+          }
+          continue;
+        }
+        // skip children stored by an earlier expansion
+        if (child.f <= fnh.lowF) {
+          continue;
+        }
+        if (!parents) {
+          child.parent = null;
+        }
+        children[i] = new MSANode(); // reset!
+        int layer = fnh.layer + Integer.bitCount(child.e);
+        // merge duplicates
+        FNH dup = (FNH)frontier[child.e].get(child.packed);
+        if (dup != null) {
+          duplicates++;
+          if (child.g >= dup.node.g) {
+            continue;
+          }
+          dup.node.f = child.f;
+          dup.node.g = child.g;
+          dup.node.parent = child.parent;
+          dup.F = child.f;
+          dup.lowF = Double.NEGATIVE_INFINITY;
+          if (!parents) {
+            dup.relay = relay(fnh, layer, mid, child, h);
+          }
+          if (dup.index != -1) {
+            open.update(dup.index);
+          }
+          else {
+            open.add(dup);
+          }
+        }
+        // no duplicates
+        else {
+          FNH c = new FNH(child, layer);
+          if (!parents) {
+            c.relay = relay(fnh, layer, mid, child, h);
+          }
+          open.add(c);
+          frontier[child.e].put(child.packed, c);
+          generated++;
+          if (++stored > peak) {
+            peak = stored;
+          }
+        }
+      }
+
+      if (nextF < Double.POSITIVE_INFINITY) {
+        // put the node back with the f value of its next best child
+        fnh.lowF = fnh.F;
+        fnh.F = nextF;
+        open.add(fnh);
+      }
+      else {
+        // all neighbors have been generated, drop the closed node and
+        // mark the operator used at the predecessor position
+        frontier[n.e].remove(n.packed);
+        stored--; dropped++;
+        if (n != node) {
+          long pred = predecessor(n.packed, n.e);
+          used.put(pred, used.get(pred) | (1L << n.e));
+        }
+      }
+    }
+    stored = 0;
+    if (used.size() > peakUsed) {
+      peakUsed = used.size();
+    }
+    return goal;
+  }
+
+  /*
+   * Returns the relay for a child at the specified layer.  The relay is
+   * the first node on the path at or beyond the middle layer and it
+   * keeps the global heuristic value of that node in f - g.
+   */
+  private MSANode relay(FNH parent, int layer, int mid, MSANode child,
+      double h) {
+    if (parent.layer < mid && layer >= mid) {
+      MSANode relay = copy(child);
+      relay.parent = null;
+      relay.f = child.g + h;
+      return relay;
+    }
+    return parent.relay;
+  }
+
+  /*
+   * Returns true if the packed state lies within the current segment.
+   */
+  private boolean inside(long packed) {
+    for (int i=numSeqs-1; i>=0; i--) {
+      if (((int) packed & 0x3FF) > targetPos[i]) return false;
+      packed >>= 10;
+    }
+    return true;
+  }
+
+  /*
+   * Returns the packed position of the predecessors of a node.  All of
+   * the predecessors of a node share the same position.
+   */
+  private long predecessor(long packed, byte e) {
+    long pred = packed;
+    for (int i=numSeqs-1, shift=0; i>=0; i--, shift+=10) {
+      if ((e & (1 << i)) != 0) {
+        pred -= 1L << shift;
+      }
+    }
+    return pred;
+  }
+
+  private MSANode copy(MSANode node) {
+    MSANode copy = new MSANode();
+    copy.packed = node.packed;
+    copy.e = node.e;
+    copy.g = node.g;
+    copy.f = node.f;
+    return copy;
+  }
+
+  /*
+   * Wrapper for MSANode to make heapable
+   */
+  private final class FNH implements Indexable {
+    private MSANode node;
+    private MSANode relay;
+    private double F;
+    private double lowF = Double.NEGATIVE_INFINITY;
+    private int layer;
+    private int index = -1;
+    public FNH(MSANode node, int layer) {
+      this.node = node;
+      this.F = node.f;
+      this.layer = layer;
+    }
+    public int getIndex() {
+      return index;
+    }
+    public void setIndex(int index) {
+      this.index = index;
+    }
+  }
+
+  /*
+   * The node comparator class
+   */
+  private final class NodeComparator implements Comparator<FNH> {
+    public int compare(final FNH a, final FNH b) {
+      if (a.F == b.F) {
+        if (a.node.g > b.node.g) return -1;
+        if (a.node.g < b.node.g) return 1;
+        return 0;
+      }
+      else {
+        if (a.F < b.F) return -1;
+        if (a.F > b.F) return 1;
+        return 0;
+      }
+    }
+  }
+
+}
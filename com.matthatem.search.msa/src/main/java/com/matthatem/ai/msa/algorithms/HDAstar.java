@@ -0,0 +1,378 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.matthatem.ai.msa.algorithms;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import com.carrotsearch.hppc.LongObjectOpenHashMap;
+import com.matthatem.ai.msa.MSA;
+import com.matthatem.ai.msa.MSA.MSANode;
+import com.matthatem.ai.msa.MSA.MSAState;
+import com.matthatem.ai.msa.collections.BinHeap;
+import com.matthatem.ai.msa.collections.Indexable;
+
+
+/**
+ * An implementation of hash distributed A* (HDA*) tailored to the MSA
+ * domain.  Every state is owned by one worker thread, chosen by a hash of
+ * the packed state or of its abstract state in the lattice projection.
+ * A worker keeps the open list and closed lists of the states it owns.
+ * Children owned by another worker are collected in batches and sent to
+ * the mailbox of the owner, a lock-free queue.
+ *
+ * A goal found by any worker becomes the incumbent solution and nodes
+ * with f no better than the incumbent are not expanded.  The search ends
+ * when every worker has run out of nodes better than the incumbent and no
+ * batches are in flight, the incumbent is then optimal.
+ *
+ * @author Matthew Hatem
+ */
+public final class HDAstar implements SearchAlgorithm {
+
+  /*
+   * The number of nodes in a batch.
+   */
+  private static final int BATCH_SIZE = 64;
+
+  /*
+   * The number of expansions between sending partial batches.
+   */
+  private static final int FLUSH_INTERVAL = 16;
+
+  private List<MSAState> path = new ArrayList<MSAState>(3);
+  private MSA domain;
+  private int numThreads;
+  private boolean projection;
+  private Worker workers[];
+  private volatile boolean done;
+  private volatile double incumbent = Double.POSITIVE_INFINITY;
+  private MSANode goal;
+  private AtomicLong inFlight = new AtomicLong();
+  private AtomicLong activity = new AtomicLong();
+  private AtomicInteger idle = new AtomicInteger();
+
+  /**
+   * The constructor.  States are assigned by a hash of the packed state.
+   *
+   * @param domain the search domain
+   * @param numThreads the number of threads
+   */
+  public HDAstar(final MSA domain, int numThreads) {
+    this(domain, numThreads, false);
+  }
+
+  /**
+   * The constructor.
+   *
+   * @param domain the search domain
+   * @param numThreads the number of threads
+   * @param projection assign states by their abstract state, the 
+   * abstraction of the domain must be initialized
+   */
+  public HDAstar(final MSA domain, int numThreads, boolean projection) {
+    this.domain = domain;
+    this.numThreads = Math.max(1, numThreads);
+    this.projection = projection;
+    this.workers = new Worker[this.numThreads];
+    for (int i=0; i<workers.length; i++) {
+      workers[i] = new Worker(i);
+    }
+  }
+
+  /* (non-Javadoc)
+   * @see edu.unh.ai.search.SearchAlgorithm#search(java.lang.Object)
+   */
+  public SearchResult<MSAState> search() {
+    double cost = 0;
+    MSANode initNode = domain.initialNode();
+    Worker first = workers[workers[0].owner(initNode.packed)];
+    first.insert(initNode);
+
+    Thread threads[] = new Thread[numThreads];
+    for (int i=0; i<numThreads; i++) {
+      threads[i] = new Thread(workers[i]);
+      threads[i].start();
+    }
+    try {
+      for (Thread t : threads) {
+        t.join();
+      }
+    } catch (InterruptedException e) {
+      throw new RuntimeException(e);
+    }
+
+    if (goal != null) {
+      cost = goal.g;
+      domain.goal = goal;
+      for (MSANode p = goal; p != null; p = p.parent) {
+        path.add(domain.unpack(p.packed, p.e));
+      }
+    }
+
+    long expanded = 0, generated = 0, duplicates = 0, batches = 0;
+    long maxExpanded = 0;
+    for (Worker w : workers) {
+      expanded += w.expanded;
+      generated += w.generated;
+      duplicates += w.duplicates;
+      batches += w.batches;
+      maxExpanded = Math.max(maxExpanded, w.expanded);
+    }
+    SearchResult<MSAState> result =
+        new SearchResult<MSAState>(path, expanded, generated);
+    result.setProperty("duplicates", Long.toString(duplicates));
+    result.setProperty("batches", Long.toString(batches));
+    result.setProperty("max worker expanded", Long.toString(maxExpanded));
+    result.setProperty("ownership", projection ? "projection" : "hash");
+    result.setProperty("threads", numThreads);
+    result.setCost(cost);
+    return result;
+  }
+
+  /*
+   * Records a goal if it is better than the incumbent.
+   */
+  private synchronized void solution(MSANode node) {
+    if (node.g < incumbent) {
+      goal = node;
+      incumbent = node.g;
+    }
+  }
+
+  /*
+   * A worker with the open and closed lists of the states it owns, its
+   * mailbox and a batch of outgoing nodes for every other worker.
+   */
+  private final class Worker implements Runnable {
+    private int id;
+    private BinHeap<MNH> open = new BinHeap<MNH>(new NodeComparator());
+    private LongObjectOpenHashMap closed[];
+    private ConcurrentLinkedQueue<MSANode[]> mailbox =
+        new ConcurrentLinkedQueue<MSANode[]>();
+    private MSANode out[][];
+    private int outSize[];
+    private MSAState state;
+    private MSAState scratch;
+    private MSANode children[];
+    private boolean isIdle;
+    private long expanded;
+    private long generated;
+    private long duplicates;
+    private long batches;
+
+    public Worker(int id) {
+      this.id = id;
+      this.state = domain.copy(domain.initial());
+      this.scratch = domain.copy(domain.initial());
+      this.children = new MSANode[domain.getNumOps()];
+      this.closed = new LongObjectOpenHashMap[domain.getNumOps()+1];
+      for (int i=0; i<closed.length; i++) {
+        closed[i] = new LongObjectOpenHashMap<MNH>();
+      }
+      this.out = new MSANode[numThreads][BATCH_SIZE];
+      this.outSize = new int[numThreads];
+    }
+
+    public void run() {
+      int sinceFlush = 0;
+      while (!done) {
+        // receive the nodes sent by other workers
+        if (!mailbox.isEmpty()) {
+          wake();
+          MSANode batch[];
+          while ((batch = mailbox.poll()) != null) {
+            for (int i=0; i<batch.length && batch[i] != null; i++) {
+              insert(batch[i]);
+            }
+            inFlight.decrementAndGet();
+          }
+        }
+        if (!open.isEmpty() && open.peek().node.f < incumbent) {
+          wake();
+          expand(open.poll().node);
+          if (++sinceFlush == FLUSH_INTERVAL) {
+            flush();
+            sinceFlush = 0;
+          }
+          continue;
+        }
+        // out of work, send what is left and check for termination
+        flush();
+        sinceFlush = 0;
+        if (!mailbox.isEmpty()) {
+          continue;
+        }
+        if (!isIdle) {
+          isIdle = true;
+          idle.incrementAndGet();
+        }
+        long a = activity.get();
+        if (idle.get() == numThreads && inFlight.get() == 0
+            && activity.get() == a) {
+          done = true;
+        }
+        else {
+          Thread.yield();
+        }
+      }
+    }
+
+    /*
+     * Marks the worker as busy.  The activity counter tells a worker that
+     * checks for termination that another worker became busy meanwhile.
+     */
+    private void wake() {
+      if (isIdle) {
+        activity.incrementAndGet();
+        isIdle = false;
+        idle.decrementAndGet();
+      }
+    }
+
+    private void expand(MSANode n) {
+      expanded++;
+      domain.unpack(n.packed, n.e, state);
+      for (int i=0; i<children.length; i++) {
+        children[i] = new MSANode();
+      }
+      int count = domain.expand(state, n, children);
+      for (int i=0; i<count; i++) {
+        MSANode child = children[i];
+        generated++;
+        if (child.f >= incumbent) {
+          continue;
+        }
+        if (domain.isGoal(child.packed)) {
+          solution(child);
+          continue;
+        }
+        int owner = owner(child.packed);
+        if (owner == id) {
+          insert(child);
+        }
+        else {
+          out[owner][outSize[owner]++] = child;
+          if (outSize[owner] == BATCH_SIZE) {
+            send(owner);
+          }
+        }
+      }
+    }
+
+    /*
+     * Adds a node owned by this worker to the open list, unless it is a
+     * duplicate that is no better than the stored node.
+     */
+    private void insert(MSANode node) {
+      if (node.f >= incumbent) {
+        return;
+      }
+      MNH dup = (MNH)closed[node.e].get(node.packed);
+      if (dup != null) {
+        duplicates++;
+        if (node.g >= dup.node.g) {
+          return;
+        }
+        dup.node.f = node.f;
+        dup.node.g = node.g;
+        dup.node.parent = node.parent;
+        if (dup.index != -1) {
+          open.update(dup.index);
+        }
+        else {
+          open.add(dup);
+        }
+      }
+      else {
+        MNH mnh = new MNH(node);
+        closed[node.e].put(node.packed, mnh);
+        open.add(mnh);
+      }
+    }
+
+    private void flush() {
+      for (int i=0; i<numThreads; i++) {
+        if (outSize[i] > 0) {
+          send(i);
+        }
+      }
+    }
+
+    private void send(int owner) {
+      MSANode batch[] = out[owner];
+      out[owner] = new MSANode[BATCH_SIZE];
+      outSize[owner] = 0;
+      inFlight.incrementAndGet();
+      workers[owner].mailbox.offer(batch);
+      batches++;
+    }
+
+    /*
+     * Returns the worker that owns the packed state.
+     */
+    private int owner(long packed) {
+      long key = packed;
+      if (projection) {
+        domain.unpack(packed, (byte)0, scratch);
+        key = domain.getProjection(scratch);
+      }
+      key *= 0x9E3779B97F4A7C15L;
+      return (int)((key >>> 33) % numThreads);
+    }
+  }
+
+  /*
+   * Wrapper for MSANode to make it Indexable
+   */
+  private static final class MNH implements Indexable {
+    private MSANode node;
+    private int index = -1;
+    public MNH(MSANode node) {
+      this.node = node;
+    }
+    public int getIndex() {
+      return index;
+    }
+    public void setIndex(int index) {
+      this.index = index;
+    }
+  }
+
+  /*
+   * The node comparator class
+   */
+  private static final class NodeComparator implements Comparator<MNH> {
+    public int compare(final MNH a, final MNH b) {
+      if (a.node.f == b.node.f) {
+        if (a.node.g > b.node.g) return -1;
+        if (a.node.g < b.node.g) return 1;
+        return 0;
+      }
+      else {
+        if (a.node.f < b.node.f) return -1;
+        if (a.node.f > b.node.f) return 1;
+        return 0;
+      }
+    }
+  }
+
+}
@@ -0,0 +1,223 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.matthatem.ai.msa.algorithms;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import com.matthatem.ai.msa.MSA;
+import com.matthatem.ai.msa.MSA.MSANode;
+import com.matthatem.ai.msa.MSA.MSAState;
+import com.matthatem.ai.msa.collections.TranspositionTable;
+
+
+/**
+ * An implementation of IDA* with a transposition table tailored to the
+ * MSA domain.  The depth-first search is iterative and only keeps the
+ * children of the nodes on the current path.  The table has a fixed
+ * capacity and serves two purposes.  A node reached again in the same
+ * iteration with a g value no better than the stored one is not
+ * searched again.  The backed up f value of every searched node is
+ * stored as a learned heuristic that is used in later iterations.
+ *
+ * @author Matthew Hatem
+ */
+public final class IDAstar implements SearchAlgorithm {
+
+  private List<MSAState> path = new ArrayList<MSAState>(3);
+  private MSA domain;
+  private TranspositionTable table;
+  private long expanded;
+  private long generated;
+  private long transpositions;
+  private int iteration;
+  private boolean found;
+  private int goalDepth;
+  private MSAState state;
+  private MSANode stack[];
+  private MSANode kids[][];
+  private int count[];
+  private int cursor[];
+  private double best[];
+
+  /**
+   * The constructor.
+   *
+   * @param domain the search domain
+   * @param memory the memory available to the transposition table in bytes
+   */
+  public IDAstar(final MSA domain, long memory) {
+    this.domain = domain;
+    this.table = new TranspositionTable(memory);
+    int maxDepth = 1;
+    MSAState goal = domain.unpack(domain.getGoalPacked(), (byte)0);
+    for (int i=0; i<goal.pos.length; i++) {
+      maxDepth += goal.pos[i];
+    }
+    this.stack = new MSANode[maxDepth];
+    this.kids = new MSANode[maxDepth][];
+    this.count = new int[maxDepth];
+    this.cursor = new int[maxDepth];
+    this.best = new double[maxDepth];
+  }
+
+  /* (non-Javadoc)
+   * @see edu.unh.ai.search.SearchAlgorithm#search(java.lang.Object)
+   */
+  public SearchResult<MSAState> search() {
+    double cost = 0;
+    state = domain.copy(domain.initial());
+    MSANode initNode = domain.initialNode();
+
+    double bound = initNode.f;
+    while (bound < Double.POSITIVE_INFINITY) {
+      iteration++;
+      double next = dfs(initNode, bound);
+      if (found) {
+        break;
+      }
+      bound = next;
+    }
+
+    if (found) {
+      MSANode parent = null;
+      for (int d=0; d<=goalDepth; d++) {
+        MSANode node = new MSANode();
+        node.packed = stack[d].packed;
+        node.e = stack[d].e;
+        node.g = stack[d].g;
+        node.f = stack[d].f;
+        node.parent = parent;
+        parent = node;
+      }
+      cost = parent.g;
+      domain.goal = parent;
+      for (MSANode p = parent; p != null; p = p.parent) {
+        path.add(domain.unpack(p.packed, p.e));
+      }
+    }
+
+    SearchResult<MSAState> result =
+        new SearchResult<MSAState>(path, expanded, generated);
+    result.setProperty("iterations", iteration);
+    result.setProperty("transpositions", Long.toString(transpositions));
+    result.setProperty("table capacity", table.capacity());
+    result.setProperty("table replaced", Long.toString(table.getReplaced()));
+    result.setCost(cost);
+    return result;
+  }
+
+  /*
+   * Searches below the root within the bound.  Returns the smallest f
+   * value that exceeded the bound.
+   */
+  private double dfs(MSANode root, double bound) {
+    double v = enter(root, 0, bound);
+    if (!Double.isNaN(v)) {
+      return v;
+    }
+    int d = 0;
+    while (d >= 0) {
+      if (cursor[d] < count[d]) {
+        MSANode child = kids[d][cursor[d]++];
+        v = enter(child, d+1, bound);
+        if (found) {
+          return bound;
+        }
+        if (Double.isNaN(v)) {
+          d++;
+        }
+        else if (v < best[d]) {
+          best[d] = v;
+        }
+      }
+      else {
+        // all children are searched, learn the backed up value
+        v = best[d];
+        MSANode n = stack[d];
+        int slot = table.find(n.packed, n.e);
+        if (slot >= 0 && v - n.g > table.getH(slot)) {
+          table.setH(slot, v - n.g);
+        }
+        if (--d >= 0 && v < best[d]) {
+          best[d] = v;
+        }
+      }
+    }
+    return v;
+  }
+
+  /*
+   * Enters a node at the specified depth.  Returns the f value of the
+   * node if it is not searched, otherwise it is expanded and NaN is
+   * returned.
+   */
+  private double enter(MSANode node, int d, double bound) {
+    stack[d] = node;
+    double h = node.f - node.g;
+    int slot = table.find(node.packed, node.e);
+    if (slot >= 0) {
+      h = Math.max(h, table.getH(slot));
+      if (table.getIteration(slot) == iteration
+          && node.g >= table.getG(slot)) {
+        transpositions++;
+        return node.g + h;
+      }
+    }
+    double f = node.g + h;
+    if (f > bound) {
+      return f;
+    }
+    if (domain.isGoal(node.packed)) {
+      found = true;
+      goalDepth = d;
+      return f;
+    }
+    table.store(node.packed, node.e, node.g, h, iteration);
+
+    if (kids[d] == null) {
+      kids[d] = new MSANode[domain.getNumOps()];
+      for (int i=0; i<kids[d].length; i++) {
+        kids[d][i] = new MSANode();
+      }
+    }
+    domain.unpack(node.packed, node.e, state);
+    int n = domain.expand(state, node, kids[d]);
+    sort(kids[d], n);
+    count[d] = n;
+    cursor[d] = 0;
+    best[d] = Double.POSITIVE_INFINITY;
+    expanded++;
+    generated += n;
+    return Double.NaN;
+  }
+
+  /*
+   * Orders the children by f so the most promising are searched first.
+   */
+  private void sort(MSANode children[], int n) {
+    for (int i=1; i<n; i++) {
+      MSANode c = children[i];
+      int j = i;
+      for (; j>0 && children[j-1].f > c.f; j--) {
+        children[j] = children[j-1];
+      }
+      children[j] = c;
+    }
+  }
+
+}
@@ -0,0 +1,280 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.matthatem.ai.msa.algorithms;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import com.carrotsearch.hppc.LongObjectOpenHashMap;
+import com.matthatem.ai.msa.MSA;
+import com.matthatem.ai.msa.MSA.MSANode;
+import com.matthatem.ai.msa.MSA.MSAState;
+import com.matthatem.ai.msa.collections.BinHeap;
+import com.matthatem.ai.msa.collections.Indexable;
+
+
+/**
+ * An implementation of k-best-first search tailored to the MSA domain.
+ * The k best nodes are removed from the open list and expanded in 
+ * parallel, which computes the cost and the heuristic of every child.
+ * The children are then merged into the open and closed lists on the 
+ * calling thread in the order of their parents, so duplicates are 
+ * handled just like in A* and the search is deterministic.
+ *
+ * Nodes in a batch may be worse than the best node after the previous
+ * batch is merged, so nodes may be reopened.  The search ends when a goal 
+ * reaches the top of the open list, the solution is then optimal.
+ *
+ * @author Matthew Hatem
+ */
+public final class KBestFirst implements SearchAlgorithm {
+
+  private LongObjectOpenHashMap closed[];
+  private BinHeap<MNH> open = new BinHeap<MNH>(new NodeComparator());
+  private List<MSAState> path = new ArrayList<MSAState>(3);
+  private MSA domain;
+  private int numThreads;
+  private int k;
+  private MSANode batch[];
+  private MSANode results[][];
+  private int counts[];
+  private Expander workers[];
+  private ExecutorService executor;
+  private long expanded;
+  private long generated;
+  private long duplicates;
+  private long batches;
+
+  /**
+   * The constructor.
+   *
+   * @param domain the search domain
+   * @param numThreads the number of threads
+   * @param k the number of nodes expanded in a batch
+   */
+  public KBestFirst(final MSA domain, int numThreads, int k) {
+    this.domain = domain;
+    this.numThreads = Math.max(1, numThreads);
+    this.k = Math.max(1, k);
+    this.batch = new MSANode[this.k];
+    this.results = new MSANode[this.k][];
+    this.counts = new int[this.k];
+    this.closed = new LongObjectOpenHashMap[domain.getNumOps()+1];
+    for (int i=0; i<closed.length; i++) {
+      closed[i] = new LongObjectOpenHashMap<MNH>();
+    }
+    this.workers = new Expander[this.numThreads];
+    for (int i=0; i<workers.length; i++) {
+      workers[i] = new Expander();
+    }
+  }
+
+  /* (non-Javadoc)
+   * @see edu.unh.ai.search.SearchAlgorithm#search(java.lang.Object)
+   */
+  public SearchResult<MSAState> search() {
+    double cost = 0;
+    MSANode initNode = domain.initialNode();
+    open(new MNH(initNode));
+    if (numThreads > 1) {
+      executor = Executors.newFixedThreadPool(numThreads);
+    }
+
+    while (!open.isEmpty()) {
+      // take the k best nodes, up to the first goal
+      int size = 0;
+      MNH goal = null;
+      while (size < k && !open.isEmpty()) {
+        MNH mnh = open.poll();
+        if (domain.isGoal(mnh.node.packed)) {
+          goal = mnh;
+          break;
+        }
+        batch[size++] = mnh.node;
+      }
+      if (goal != null && size == 0) {
+        MSANode n = goal.node;
+        cost = n.g;
+        domain.goal = n;
+        for (MSANode p = n; p != null; p = p.parent) {
+          path.add(domain.unpack(p.packed, p.e));
+        }
+        break;
+      }
+      if (goal != null) {
+        // expand the better nodes first
+        open.add(goal);
+      }
+      expand(size);
+      merge(size);
+    }
+    if (executor != null) {
+      executor.shutdown();
+    }
+
+    SearchResult<MSAState> result =
+        new SearchResult<MSAState>(path, expanded, generated);
+    result.setProperty("duplicates", Long.toString(duplicates));
+    result.setProperty("batches", Long.toString(batches));
+    result.setProperty("batch size", k);
+    result.setProperty("threads", numThreads);
+    result.setCost(cost);
+    return result;
+  }
+
+  /*
+   * Expands the batch, the workers take contiguous slices.
+   */
+  private void expand(int size) {
+    batches++;
+    expanded += size;
+    int n = Math.min(numThreads, size);
+    if (n == 1) {
+      workers[0].set(0, size);
+      workers[0].call();
+      return;
+    }
+    int chunk = (size + n - 1) / n;
+    for (int i=0; i<n; i++) {
+      int lo = Math.min(size, i * chunk);
+      workers[i].set(lo, Math.min(size, lo + chunk));
+    }
+    try {
+      List<Expander> tasks = Arrays.asList(workers).subList(0, n);
+      for (Future<Void> f : executor.invokeAll(tasks)) {
+        f.get();
+      }
+    } catch (InterruptedException e) {
+      throw new RuntimeException(e);
+    } catch (ExecutionException e) {
+      throw new RuntimeException(e.getCause());
+    }
+  }
+
+  /*
+   * Merges the children into the open and closed lists in the order of
+   * their parents.
+   */
+  private void merge(int size) {
+    for (int b=0; b<size; b++) {
+      MSANode children[] = results[b];
+      for (int i=0; i<counts[b]; i++) {
+        MSANode child = children[i];
+        MNH dup = (MNH)closed[child.e].get(child.packed);
+        if (dup != null) {
+          duplicates++;
+          if (child.g >= dup.node.g) {
+            continue;
+          }
+          dup.node.f = child.f;
+          dup.node.g = child.g;
+          dup.node.parent = child.parent;
+          if (dup.index != -1) {
+            open.update(dup.index);
+          }
+          else {
+            open.add(dup);
+          }
+        }
+        else {
+          open(new MNH(child));
+          generated++;
+        }
+      }
+      results[b] = null;
+    }
+  }
+
+  private void open(MNH mnh) {
+    open.add(mnh);
+    closed[mnh.node.e].put(mnh.node.packed, mnh);
+  }
+
+  /*
+   * Expands a slice of the batch.  Each worker has its own state.
+   */
+  private final class Expander implements Callable<Void> {
+    private MSAState state;
+    private int lo, hi;
+
+    public Expander() {
+      this.state = domain.copy(domain.initial());
+    }
+
+    public void set(int lo, int hi) {
+      this.lo = lo;
+      this.hi = hi;
+    }
+
+    public Void call() {
+      for (int b=lo; b<hi; b++) {
+        MSANode n = batch[b];
+        MSANode children[] = new MSANode[domain.getNumOps()];
+        for (int i=0; i<children.length; i++) {
+          children[i] = new MSANode();
+        }
+        domain.unpack(n.packed, n.e, state);
+        counts[b] = domain.expand(state, n, children);
+        results[b] = children;
+      }
+      return null;
+    }
+  }
+
+  /*
+   * Wrapper for MSANode to make heapable
+   */
+  private static final class MNH implements Indexable {
+    private MSANode node;
+    private int index = -1;
+    public MNH(MSANode node) {
+      this.node = node;
+    }
+    public int getIndex() {
+      return index;
+    }
+    public void setIndex(int index) {
+      this.index = index;
+    }
+  }
+
+  /*
+   * The node comparator class
+   */
+  private static final class NodeComparator implements Comparator<MNH> {
+    public int compare(final MNH a, final MNH b) {
+      if (a.node.f == b.node.f) {
+        if (a.node.g > b.node.g) return -1;
+        if (a.node.g < b.node.g) return 1;
+        return 0;
+      }
+      else {
+        if (a.node.f < b.node.f) return -1;
+        if (a.node.f > b.node.f) return 1;
+        return 0;
+      }
+    }
+  }
+
+}
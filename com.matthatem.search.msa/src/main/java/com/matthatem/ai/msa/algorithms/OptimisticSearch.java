@@ -0,0 +1,289 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.matthatem.ai.msa.algorithms;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+
+import com.carrotsearch.hppc.LongObjectOpenHashMap;
+import com.matthatem.ai.msa.MSA;
+import com.matthatem.ai.msa.MSA.MSANode;
+import com.matthatem.ai.msa.MSA.MSAState;
+import com.matthatem.ai.msa.collections.BinHeap;
+import com.matthatem.ai.msa.collections.Indexable;
+
+
+/**
+ * An implementation of optimistic search tailored to the MSA domain.
+ * The domain heuristic must not be weighted.  Nodes are expanded in
+ * order of g + w*h, with a weight well above the requested bound, as
+ * long as that can improve the incumbent.  Otherwise nodes are expanded
+ * in order of f to raise the lowest f value on the open list until it
+ * proves that the incumbent is within the bound.
+ *
+ * @author Matthew Hatem
+ */
+public final class OptimisticSearch implements SearchAlgorithm {
+
+  private LongObjectOpenHashMap closed[];
+  private BinHeap<Handle> open = new BinHeap<Handle>(new WeightedComparator());
+  private BinHeap<Handle> cleanup = new BinHeap<Handle>(new NodeComparator());
+  private List<MSAState> path = new ArrayList<MSAState>(3);
+  private MSA domain;
+  private double bound;
+  private double weight;
+  private long expanded;
+  private long generated;
+  private long duplicates;
+  private long reopened;
+  private long cleanups;
+  private double incumbent = Double.POSITIVE_INFINITY;
+  private MSANode solution;
+  private MSAState state;
+  private MSANode children[];
+
+  /**
+   * The constructor.  The optimistic weight is 2(bound-1)+1.
+   *
+   * @param domain the search domain
+   * @param bound the suboptimality bound
+   */
+  public OptimisticSearch(final MSA domain, double bound) {
+    this(domain, bound, 2 * (bound - 1) + 1);
+  }
+
+  /**
+   * The constructor.
+   *
+   * @param domain the search domain
+   * @param bound the suboptimality bound
+   * @param weight the optimistic weight
+   */
+  public OptimisticSearch(final MSA domain, double bound, double weight) {
+    this.domain = domain;
+    this.bound = Math.max(1, bound);
+    this.weight = Math.max(1, weight);
+    this.children = new MSANode[domain.getNumOps()];
+    this.closed = new LongObjectOpenHashMap[domain.getNumOps()+1];
+    this.closed[domain.getNumOps()] = new LongObjectOpenHashMap<MNH>(); // root op
+    for (int i=0; i<this.children.length; i++) {
+      this.children[i] = new MSANode();
+      this.closed[i] = new LongObjectOpenHashMap<MNH>();
+    }
+  }
+
+  /* (non-Javadoc)
+   * @see edu.unh.ai.search.SearchAlgorithm#search(java.lang.Object)
+   */
+  public SearchResult<MSAState> search() {
+    state = domain.initial();
+    MSANode initNode = domain.initialNode();
+    open(new MNH(initNode));
+
+    double proven = Double.POSITIVE_INFINITY;
+    while (!cleanup.isEmpty()) {
+      double fmin = cleanup.peek().mnh.node.f;
+      proven = incumbent / fmin;
+      if (fmin * bound >= incumbent) {
+        break;
+      }
+      MNH mnh;
+      if (open.peek().mnh.fw < incumbent) {
+        mnh = open.poll().mnh;
+        cleanup.remove(mnh.fHandle.index);
+      }
+      else {
+        mnh = cleanup.poll().mnh;
+        open.remove(mnh.wHandle.index);
+        cleanups++;
+      }
+      expand(mnh.node);
+    }
+    if (cleanup.isEmpty() && solution != null) {
+      proven = 1;
+    }
+
+    double cost = 0;
+    if (solution != null) {
+      cost = solution.g;
+      domain.goal = solution;
+      for (MSANode p = solution; p != null; p = p.parent) {
+        path.add(domain.unpack(p.packed, p.e));
+      }
+    }
+
+    SearchResult<MSAState> result =
+        new SearchResult<MSAState>(path, expanded, generated);
+    result.setProperty("duplicates", Long.toString(duplicates));
+    result.setProperty("reopened", Long.toString(reopened));
+    result.setProperty("cleanup expansions", Long.toString(cleanups));
+    result.setProperty("optimistic weight", Double.toString(weight));
+    result.setProperty("proven bound", Double.toString(proven));
+    result.setCost(cost);
+    return result;
+  }
+
+  private void expand(MSANode n) {
+    expanded++;
+    domain.unpack(n.packed, n.e, state);
+    int count = domain.expand(state, n, children);
+
+    for (int i=0; i<count; i++) {
+      MSANode child = children[i];
+      // children that can not improve the incumbent are not stored
+      if (child.f >= incumbent) {
+        continue;
+      }
+      children[i] = new MSANode(); // reset!
+      // merge duplicates
+      MNH dup = (MNH)closed[child.e].get(child.packed);
+      if (dup != null) {
+        duplicates++;
+        if (child.g >= dup.node.g) {
+          continue;
+        }
+        dup.node.f = child.f;
+        dup.node.g = child.g;
+        dup.node.parent = child.parent;
+        dup.fw = key(dup.node);
+        if (dup.fHandle.index != -1) {
+          open.update(dup.wHandle.index);
+          cleanup.update(dup.fHandle.index);
+        }
+        else {
+          reopened++;
+          open.add(dup.wHandle);
+          cleanup.add(dup.fHandle);
+        }
+      }
+      // no duplicates
+      else {
+        dup = new MNH(child);
+        open(dup);
+        generated++;
+      }
+      if (domain.isGoal(child.packed)) {
+        solution(dup.node);
+      }
+    }
+  }
+
+  /*
+   * Records a new incumbent.  The path is copied since the g values and
+   * parents of the nodes on it may change later in the search.
+   */
+  private void solution(MSANode goal) {
+    incumbent = goal.g;
+    MSANode copy = null;
+    for (MSANode p = goal; p != null; p = p.parent) {
+      MSANode node = new MSANode();
+      node.packed = p.packed;
+      node.e = p.e;
+      node.g = p.g;
+      node.f = p.f;
+      if (copy == null) {
+        solution = node;
+      }
+      else {
+        copy.parent = node;
+      }
+      copy = node;
+    }
+  }
+
+  private double key(MSANode node) {
+    return node.g + weight * (node.f - node.g);
+  }
+
+  private void open(MNH mnh) {
+    open.add(mnh.wHandle);
+    cleanup.add(mnh.fHandle);
+    closed[mnh.node.e].put(mnh.node.packed, mnh);
+  }
+
+  /*
+   * Wrapper for MSANode.  The node is kept on both open lists, with a
+   * separate handle for each list.
+   */
+  private final class MNH {
+    private MSANode node;
+    private double fw;
+    private Handle wHandle = new Handle(this);
+    private Handle fHandle = new Handle(this);
+    public MNH(MSANode node) {
+      this.node = node;
+      this.fw = key(node);
+    }
+  }
+
+  /*
+   * The position of a node in one of the open lists.
+   */
+  private static final class Handle implements Indexable {
+    private MNH mnh;
+    private int index = -1;
+    public Handle(MNH mnh) {
+      this.mnh = mnh;
+    }
+    public int getIndex() {
+      return index;
+    }
+    public void setIndex(int index) {
+      this.index = index;
+    }
+  }
+
+  /*
+   * Orders nodes by g + w*h
+   */
+  private final class WeightedComparator implements Comparator<Handle> {
+    public int compare(final Handle ha, final Handle hb) {
+      MNH a = ha.mnh, b = hb.mnh;
+      if (a.fw == b.fw) {
+        if (a.node.g > b.node.g) return -1;
+        if (a.node.g < b.node.g) return 1;
+        return 0;
+      }
+      else {
+        if (a.fw < b.fw) return -1;
+        if (a.fw > b.fw) return 1;
+        return 0;
+      }
+    }
+  }
+
+  /*
+   * The node comparator class
+   */
+  private final class NodeComparator implements Comparator<Handle> {
+    public int compare(final Handle ha, final Handle hb) {
+      MSANode a = ha.mnh.node, b = hb.mnh.node;
+      if (a.f == b.f) {
+        if (a.g > b.g) return -1;
+        if (a.g < b.g) return 1;
+        return 0;
+      }
+      else {
+        if (a.f < b.f) return -1;
+        if (a.f > b.f) return 1;
+        return 0;
+      }
+    }
+  }
+
+}
@@ -0,0 +1,530 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.matthatem.ai.msa.algorithms;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+
+import com.carrotsearch.hppc.LongObjectOpenHashMap;
+import com.matthatem.ai.msa.MSA;
+import com.matthatem.ai.msa.MSA.MSANode;
+import com.matthatem.ai.msa.MSA.MSAState;
+import com.matthatem.ai.msa.collections.BinHeap;
+import com.matthatem.ai.msa.collections.Indexable;
+
+
+/**
+ * An implementation of Parallel Best-NBlock-First (PBNF) search tailored
+ * to the MSA domain.  The states are partitioned into nblocks by the
+ * lattice projection, every nblock has its own open and closed lists.
+ * The duplicate detection scope of an nblock is the set of its successors
+ * in the abstract graph, two nblocks interfere if their scopes overlap.
+ * A thread acquires a free nblock, one that no acquired nblock interferes
+ * with, so it can expand nodes and detect duplicates without locking.
+ * Only acquiring and releasing nblocks takes the global lock.
+ *
+ * A thread keeps its nblock for a minimum number of expansions and then
+ * switches when a free nblock has better nodes.  To avoid livelock a 
+ * thread marks an nblock in its interference scope hot when that nblock
+ * has better nodes than its own.  Threads release nblocks that interfere
+ * with a hot nblock and those nblocks cannot be acquired until the hot
+ * nblock is acquired.  
+ *
+ * The search ends when no nblock is acquired and none is free.  Then 
+ * every nblock is either free or interferes with a hot nblock that is 
+ * free or has no nodes better than the incumbent, so no open node 
+ * is better than the incumbent and it is optimal.
+ *
+ * @author Matthew Hatem
+ */
+public final class PBNF implements SearchAlgorithm {
+
+  /*
+   * The number of expansions before a thread may switch nblocks.
+   */
+  private static final int MIN_EXPANSIONS = 4;
+
+  private List<MSAState> path = new ArrayList<MSAState>(3);
+  private MSA domain;
+  private int numThreads;
+  private NBlock nblocks[];
+  private BinHeap<NBlock> free = new BinHeap<NBlock>(new NBlockComparator());
+  private Object lock = new Object();
+  private int busy;
+  private boolean done;
+  private volatile double freeBest = Double.POSITIVE_INFINITY;
+  private volatile double incumbent = Double.POSITIVE_INFINITY;
+  private MSANode goal;
+  private long switches;
+  private long hot;
+
+  /**
+   * The constructor.  The abstraction of the domain must be initialized.
+   *
+   * @param domain the search domain
+   * @param numThreads the number of threads
+   */
+  public PBNF(final MSA domain, int numThreads) {
+    this.domain = domain;
+    this.numThreads = Math.max(1, numThreads);
+    this.nblocks = new NBlock[domain.getProjectionSizeInt()];
+    for (int i=0; i<nblocks.length; i++) {
+      nblocks[i] = new NBlock(i);
+    }
+  }
+
+  /* (non-Javadoc)
+   * @see edu.unh.ai.search.SearchAlgorithm#search(java.lang.Object)
+   */
+  public SearchResult<MSAState> search() {
+    double cost = 0;
+    MSANode initNode = domain.initialNode();
+    NBlock first = nblocks[domain.getProjectionInt(domain.initial())];
+    first.insert(initNode);
+    first.best = initNode.f;
+    synchronized (lock) {
+      reevaluate(first);
+    }
+
+    Worker workers[] = new Worker[numThreads];
+    Thread threads[] = new Thread[numThreads];
+    for (int i=0; i<numThreads; i++) {
+      workers[i] = new Worker();
+      threads[i] = new Thread(workers[i]);
+      threads[i].start();
+    }
+    try {
+      for (Thread t : threads) {
+        t.join();
+      }
+    } catch (InterruptedException e) {
+      throw new RuntimeException(e);
+    }
+
+    if (goal != null) {
+      cost = goal.g;
+      domain.goal = goal;
+      for (MSANode p = goal; p != null; p = p.parent) {
+        path.add(domain.unpack(p.packed, p.e));
+      }
+    }
+
+    long expanded = 0, generated = 0, duplicates = 0;
+    long maxExpanded = 0;
+    for (Worker w : workers) {
+      expanded += w.expanded;
+      generated += w.generated;
+      duplicates += w.duplicates;
+      maxExpanded = Math.max(maxExpanded, w.expanded);
+    }
+    SearchResult<MSAState> result =
+        new SearchResult<MSAState>(path, expanded, generated);
+    result.setProperty("duplicates", Long.toString(duplicates));
+    result.setProperty("nblocks", nblocks.length);
+    result.setProperty("switches", Long.toString(switches));
+    result.setProperty("hot", Long.toString(hot));
+    result.setProperty("max worker expanded", Long.toString(maxExpanded));
+    result.setProperty("threads", numThreads);
+    result.setCost(cost);
+    return result;
+  }
+
+  /*
+   * Records a goal if it is better than the incumbent.
+   */
+  private synchronized void solution(MSANode node) {
+    if (node.g < incumbent) {
+      goal = node;
+      incumbent = node.g;
+    }
+  }
+
+  /*
+   * Releases the nblock, if any, and waits for the best free nblock.
+   * Returns null when the search is done.
+   */
+  private NBlock next(NBlock b) {
+    synchronized (lock) {
+      if (b != null) {
+        release(b);
+      }
+      while (!done) {
+        NBlock n = free.isEmpty() ? null : free.peek();
+        if (n != null && n.best >= incumbent) {
+          // the incumbent improved while the nblock was free
+          removeFree(n);
+          clearHot(n);
+          continue;
+        }
+        if (n != null) {
+          acquire(n);
+          return n;
+        }
+        if (busy == 0) {
+          done = true;
+          lock.notifyAll();
+          break;
+        }
+        try {
+          lock.wait();
+        } catch (InterruptedException e) {
+          throw new RuntimeException(e);
+        }
+      }
+      return null;
+    }
+  }
+
+  /*
+   * The following methods must hold the lock.
+   */
+
+  private void acquire(NBlock b) {
+    switches++;
+    removeFree(b);
+    b.busy = true;
+    busy++;
+    if (b.hot) {
+      clearHot(b);
+    }
+    for (int id : scope(b)) {
+      NBlock n = nblocks[id];
+      n.sigma++;
+      removeFree(n);
+    }
+    updateFreeBest();
+  }
+
+  private void release(NBlock b) {
+    b.busy = false;
+    busy--;
+    for (int id : scope(b)) {
+      NBlock n = nblocks[id];
+      n.sigma--;
+      reevaluate(n);
+    }
+    updateFreeBest();
+    lock.notifyAll();
+  }
+
+  /*
+   * Marks an nblock hot, unless it is free, already hot or interferes 
+   * with a hot nblock.  The nblocks it interferes with cannot become 
+   * free until it is acquired.
+   */
+  private void setHot(NBlock b) {
+    if (b.hot || b.busy || b.sigma == 0 || b.best >= incumbent) {
+      return;
+    }
+    for (int id : scope(b)) {
+      if (nblocks[id].hot) {
+        return;
+      }
+    }
+    hot++;
+    b.hot = true;
+    for (int id : scope(b)) {
+      NBlock n = nblocks[id];
+      if (n != b && n.sigmaHot++ == 0) {
+        removeFree(n);
+      }
+    }
+    updateFreeBest();
+  }
+
+  private void clearHot(NBlock b) {
+    if (!b.hot) {
+      return;
+    }
+    b.hot = false;
+    for (int id : scope(b)) {
+      NBlock n = nblocks[id];
+      if (n != b) {
+        n.sigmaHot--;
+        reevaluate(n);
+      }
+    }
+  }
+
+  /*
+   * Adds the nblock to the free list if it is free and has nodes better
+   * than the incumbent.  A hot nblock with no such nodes is cleared.
+   */
+  private void reevaluate(NBlock b) {
+    if (b.busy || b.sigma > 0) {
+      return;
+    }
+    if (b.best >= incumbent) {
+      removeFree(b);
+      clearHot(b);
+    }
+    else if (b.sigmaHot == 0 && b.index == -1) {
+      free.add(b);
+    }
+  }
+
+  private void removeFree(NBlock b) {
+    if (b.index != -1) {
+      free.remove(b.index);
+    }
+  }
+
+  private void updateFreeBest() {
+    freeBest = free.isEmpty() ? Double.POSITIVE_INFINITY : free.peek().best;
+  }
+
+  /*
+   * Returns the interference scope of the nblock, the nblocks whose 
+   * successors overlap its successors, including itself.
+   */
+  private int[] scope(NBlock b) {
+    if (b.scope == null) {
+      int succ[] = domain.getProjectionSuccessors(b.id);
+      int size = 0;
+      for (int s : succ) {
+        size += domain.getProjectionPredecessors(s).length;
+      }
+      int scope[] = new int[size];
+      size = 0;
+      for (int s : succ) {
+        for (int p : domain.getProjectionPredecessors(s)) {
+          scope[size++] = p;
+        }
+      }
+      Arrays.sort(scope);
+      int n = 0;
+      for (int i=0; i<scope.length; i++) {
+        if (n == 0 || scope[i] != scope[n-1]) {
+          scope[n++] = scope[i];
+        }
+      }
+      b.scope = Arrays.copyOf(scope, n);
+    }
+    return b.scope;
+  }
+
+  /*
+   * A worker thread expands nodes from the nblock it has acquired.
+   */
+  private final class Worker implements Runnable {
+    private MSAState state;
+    private MSANode children[];
+    private long expanded;
+    private long generated;
+    private long duplicates;
+
+    public Worker() {
+      this.state = domain.copy(domain.initial());
+      this.children = new MSANode[domain.getNumOps()];
+    }
+
+    public void run() {
+      NBlock b = null;
+      while ((b = next(b)) != null) {
+        int count = 0;
+        while (b.best < incumbent) {
+          if (count >= MIN_EXPANSIONS && shouldSwitch(b, count)) {
+            break;
+          }
+          expand(b);
+          count++;
+        }
+      }
+    }
+
+    /*
+     * Returns true if a free nblock has better nodes or the nblock 
+     * interferes with a hot nblock.  Periodically marks interfering 
+     * nblocks with better nodes hot.
+     */
+    private boolean shouldSwitch(NBlock b, int count) {
+      if (freeBest < b.best) {
+        return true;
+      }
+      int scope[] = b.scope;
+      if (count % MIN_EXPANSIONS == 0) {
+        for (int id : scope) {
+          NBlock n = nblocks[id];
+          if (n != b && !n.hot && n.best < b.best) {
+            synchronized (lock) {
+              setHot(n);
+            }
+          }
+        }
+      }
+      for (int id : scope) {
+        NBlock n = nblocks[id];
+        if (n != b && n.hot) {
+          return true;
+        }
+      }
+      return false;
+    }
+
+    /*
+     * Expands the best node of the nblock.  The children go to the 
+     * successors of the nblock, which no other thread can access.
+     */
+    private void expand(NBlock b) {
+      MSANode n = b.open.poll().node;
+      expanded++;
+      domain.unpack(n.packed, n.e, state);
+      for (int i=0; i<children.length; i++) {
+        children[i] = new MSANode();
+      }
+      int count = domain.expand(state, n, children);
+      for (int i=0; i<count; i++) {
+        MSANode child = children[i];
+        generated++;
+        if (child.f >= incumbent) {
+          continue;
+        }
+        if (domain.isGoal(child.packed)) {
+          solution(child);
+          continue;
+        }
+        domain.unpack(child.packed, child.e, state);
+        if (nblocks[domain.getProjectionInt(state)].insert(child)) {
+          duplicates++;
+        }
+      }
+      for (int id : domain.getProjectionSuccessors(b.id)) {
+        NBlock s = nblocks[id];
+        if (s.open != null) {
+          s.best = s.open.isEmpty() ? 
+              Double.POSITIVE_INFINITY : s.open.peek().node.f;
+        }
+      }
+    }
+  }
+
+  /*
+   * An nblock with the open and closed lists of the states that project
+   * to it.  The lists are only accessed by the thread that acquired the 
+   * nblock or one of its predecessors, the other fields are guarded by
+   * the lock.
+   */
+  private static final class NBlock implements Indexable {
+    private int id;
+    private int index = -1;
+    private BinHeap<MNH> open;
+    private LongObjectOpenHashMap<MNH> closed;
+    private volatile double best = Double.POSITIVE_INFINITY;
+    private volatile boolean hot;
+    private boolean busy;
+    private int sigma;
+    private int sigmaHot;
+    private int scope[];
+
+    public NBlock(int id) {
+      this.id = id;
+    }
+
+    /*
+     * Adds a node to the open list, unless it is a duplicate that is no
+     * better than the stored node.  Returns true for duplicates.
+     */
+    private boolean insert(MSANode node) {
+      if (open == null) {
+        open = new BinHeap<MNH>(new NodeComparator());
+        closed = new LongObjectOpenHashMap<MNH>();
+      }
+      MNH head = closed.get(node.packed);
+      for (MNH dup = head; dup != null; dup = dup.next) {
+        if (dup.node.e != node.e) {
+          continue;
+        }
+        if (node.g >= dup.node.g) {
+          return true;
+        }
+        dup.node.f = node.f;
+        dup.node.g = node.g;
+        dup.node.parent = node.parent;
+        if (dup.index != -1) {
+          open.update(dup.index);
+        }
+        else {
+          open.add(dup);
+        }
+        return true;
+      }
+      MNH mnh = new MNH(node);
+      mnh.next = head;
+      closed.put(node.packed, mnh);
+      open.add(mnh);
+      return false;
+    }
+
+    public int getIndex() {
+      return index;
+    }
+    public void setIndex(int index) {
+      this.index = index;
+    }
+  }
+
+  /*
+   * Wrapper for MSANode to make it Indexable, chained with the nodes of 
+   * the same packed state for other incoming edges.
+   */
+  private static final class MNH implements Indexable {
+    private MSANode node;
+    private MNH next;
+    private int index = -1;
+    public MNH(MSANode node) {
+      this.node = node;
+    }
+    public int getIndex() {
+      return index;
+    }
+    public void setIndex(int index) {
+      this.index = index;
+    }
+  }
+
+  /*
+   * Orders free nblocks by their best f.
+   */
+  private static final class NBlockComparator implements Comparator<NBlock> {
+    public int compare(final NBlock a, final NBlock b) {
+      if (a.best < b.best) return -1;
+      if (a.best > b.best) return 1;
+      return 0;
+    }
+  }
+
+  /*
+   * The node comparator class
+   */
+  private static final class NodeComparator implements Comparator<MNH> {
+    public int compare(final MNH a, final MNH b) {
+      if (a.node.f == b.node.f) {
+        if (a.node.g > b.node.g) return -1;
+        if (a.node.g < b.node.g) return 1;
+        return 0;
+      }
+      else {
+        if (a.node.f < b.node.f) return -1;
+        if (a.node.f > b.node.f) return 1;
+        return 0;
+      }
+    }
+  }
+
+}
@@ -0,0 +1,233 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.matthatem.ai.msa.algorithms;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+
+import com.carrotsearch.hppc.LongObjectOpenHashMap;
+import com.matthatem.ai.msa.MSA;
+import com.matthatem.ai.msa.MSA.MSANode;
+import com.matthatem.ai.msa.MSA.MSAState;
+import com.matthatem.ai.msa.collections.BinHeap;
+import com.matthatem.ai.msa.collections.Indexable;
+
+
+/**
+ * An implementation of Partial Expansion A* (PEA*) tailored to the MSA
+ * domain.  Each expansion only stores the children whose f value equals
+ * the stored F value of the parent.  The parent is then put back on the
+ * open list with the f value of its next best child.
+ * 
+ * In enhanced mode (EPEA*) the domain's operator selection function is
+ * used to generate only the children that are stored.
+ *
+ * @author Matthew Hatem
+ */
+public final class PEAstar implements SearchAlgorithm {
+
+  private LongObjectOpenHashMap closed[];
+  private BinHeap<MNH> open = new BinHeap<MNH>(new NodeComparator());
+  private List<MSAState> path = new ArrayList<MSAState>(3);
+  private MSA domain;
+  private long expanded;
+  private long generated;
+  private long duplicates;
+  private long surplus;
+  private long reinserted;
+  private MSAState state;
+  private MSANode children[];
+  private int ops[];
+  private double next[] = new double[1];
+  private boolean enhanced;
+
+  /**
+   * The constructor.
+   *
+   * @param domain the search domain
+   */
+  public PEAstar(final MSA domain) {
+    this(domain, false);
+  }
+  
+  /**
+   * The constructor.
+   * 
+   * @param domain the search domain
+   * @param enhanced use the operator selection function (EPEA*)
+   */
+  public PEAstar(final MSA domain, boolean enhanced) {
+    this.domain = domain;
+    this.enhanced = enhanced;
+    if (enhanced && !domain.hasOperatorSelection()) {
+      System.out.println("No operator selection for heuristic, using PEA*!");
+      this.enhanced = false;
+    }
+    this.ops = new int[domain.getNumOps()];
+    this.children = new MSANode[domain.getNumOps()];
+    this.closed = new LongObjectOpenHashMap[domain.getNumOps()+1];
+    this.closed[domain.getNumOps()] = new LongObjectOpenHashMap<MNH>(); // root op
+    for (int i=0; i<this.children.length; i++) {
+      this.children[i] = new MSANode();
+      this.closed[i] = new LongObjectOpenHashMap<MNH>();
+    }
+  }
+
+  /* (non-Javadoc)
+   * @see edu.unh.ai.search.SearchAlgorithm#search(java.lang.Object)
+   */
+  public SearchResult<MSAState> search() {
+    double cost = 0;
+    state = domain.initial();
+    MSANode initNode = domain.initialNode();
+    open(new MNH(initNode));
+
+    while (!open.isEmpty() && path.isEmpty()) {
+      MNH mnh = open.poll();
+      MSANode n = mnh.node;
+      if (domain.isGoal(n.packed)) {
+        cost = n.g;
+        domain.goal = n;
+        for (MSANode p = n; p != null; p = p.parent) {
+          path.add(domain.unpack(p.packed, p.e));
+        }
+        break;
+      }
+      expanded++;
+
+      domain.unpack(n.packed, n.e, state);
+      int count = 0;
+      double nextF = Double.POSITIVE_INFINITY;
+      if (enhanced) {
+        count = domain.selectOperators(state, n.g, mnh.lowF, mnh.F, ops, next);
+        count = domain.expand(state, n, children, ops, count);
+        nextF = next[0];
+      }
+      else {
+        count = domain.expand(state, n, children);
+      }
+
+      for (int i=0; i<count; i++) {
+        MSANode child = children[i];
+        if (!enhanced) {
+          // collapse children that belong to a later expansion
+          if (child.f > mnh.F) {
+            surplus++;
+            if (child.f < nextF) {
+              nextF = child.f;
+            }
+            continue;
+          }
+          // skip children stored by an earlier expansion
+          if (child.f <= mnh.lowF) {
+            continue;
+          }
+        }
+        children[i] = new MSANode(); // reset!
+        // merge duplicates
+        MNH dup = (MNH)closed[child.e].get(child.packed);
+        if (dup != null) {
+          duplicates++;
+          if (child.g >= dup.node.g) {
+            continue;
+          }
+          else {
+            dup.node.f = child.f;
+            dup.node.g = child.g;
+            dup.node.parent = child.parent;
+            dup.F = child.f;
+            dup.lowF = Double.NEGATIVE_INFINITY;
+            if (dup.index != -1) {
+              open.update(dup.index);
+            }
+            else {
+              open.add(dup);
+            }
+          }
+        }
+        // no duplicates
+        else {
+          open(new MNH(child));
+          generated++;
+        }
+      }
+
+      // put the parent back with the f value of its next best child
+      if (nextF < Double.POSITIVE_INFINITY && mnh.index == -1) {
+        mnh.lowF = mnh.F;
+        mnh.F = nextF;
+        open.add(mnh);
+        reinserted++;
+      }
+    }
+
+    SearchResult<MSAState> result =
+        new SearchResult<MSAState>(path, expanded, generated);
+    result.setProperty("duplicates", Long.toString(duplicates));
+    result.setProperty("surplus", Long.toString(surplus));
+    result.setProperty("reinserted", Long.toString(reinserted));
+    result.setCost(cost);
+    return result;
+  }
+
+  private void open(MNH mnh) {
+    open.add(mnh);
+    closed[mnh.node.e].put(mnh.node.packed, mnh);
+  }
+
+  /*
+   * Wrapper for MSANode to make heapable.  F is the stored value used
+   * to order the open list and lowF is the largest child f value that
+   * has already been collapsed into this node.
+   */
+  private final class MNH implements Indexable {
+    private MSANode node;
+    private double F;
+    private double lowF = Double.NEGATIVE_INFINITY;
+    private int index = -1;
+    public MNH(MSANode node) {
+      this.node = node;
+      this.F = node.f;
+    }
+    public int getIndex() {
+      return index;
+    }
+    public void setIndex(int index) {
+      this.index = index;
+    }
+  }
+
+  /*
+   * The node comparator class
+   */
+  private final class NodeComparator implements Comparator<MNH> {
+    public int compare(final MNH a, final MNH b) {
+      if (a.F == b.F) {
+        if (a.node.g > b.node.g) return -1;
+        if (a.node.g < b.node.g) return 1;
+        return 0;
+      }
+      else {
+        if (a.F < b.F) return -1;
+        if (a.F > b.F) return 1;
+        return 0;
+      }
+    }
+  }
+
+}
@@ -0,0 +1,288 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.matthatem.ai.msa.algorithms;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+
+import com.carrotsearch.hppc.LongObjectOpenHashMap;
+import com.matthatem.ai.msa.MSA;
+import com.matthatem.ai.msa.MSA.MSANode;
+import com.matthatem.ai.msa.MSA.MSAState;
+import com.matthatem.ai.msa.collections.BinHeap;
+import com.matthatem.ai.msa.collections.Indexable;
+
+
+/**
+ * A pipelined implementation of A* tailored to the MSA domain.  The 
+ * calling thread only maintains the open and closed lists, worker threads
+ * generate the children of the nodes it removes from the open list and 
+ * compute their cost and heuristic.  The nodes travel through a ring of
+ * slots, up to lookahead nodes are being expanded at any time and the 
+ * children are merged in the order their parents were removed.  With a
+ * lookahead of one the nodes are expanded in the same order as A*.
+ *
+ * Workers expand a copy of the node, it may be improved while it is in 
+ * the pipeline and then it goes back on the open list.  A goal at the top
+ * of the open list ends the search once the pipeline is drained, the 
+ * solution is then optimal.
+ *
+ * @author Matthew Hatem
+ */
+public final class PipelinedAstar implements SearchAlgorithm {
+
+  private LongObjectOpenHashMap closed[];
+  private BinHeap<MNH> open = new BinHeap<MNH>(new NodeComparator());
+  private List<MSAState> path = new ArrayList<MSAState>(3);
+  private MSA domain;
+  private int numThreads;
+  private Slot ring[];
+  private BlockingQueue<Slot> tasks;
+  private long head;
+  private long tail;
+  private long expanded;
+  private long generated;
+  private long duplicates;
+  private long waits;
+
+  /**
+   * The constructor.
+   *
+   * @param domain the search domain
+   * @param numThreads the number of worker threads
+   * @param lookahead the number of nodes in the pipeline
+   */
+  public PipelinedAstar(final MSA domain, int numThreads, int lookahead) {
+    this.domain = domain;
+    this.numThreads = Math.max(1, numThreads);
+    this.ring = new Slot[Math.max(1, lookahead)];
+    for (int i=0; i<ring.length; i++) {
+      ring[i] = new Slot();
+    }
+    this.tasks = new ArrayBlockingQueue<Slot>(ring.length + this.numThreads);
+    this.closed = new LongObjectOpenHashMap[domain.getNumOps()+1];
+    for (int i=0; i<closed.length; i++) {
+      closed[i] = new LongObjectOpenHashMap<MNH>();
+    }
+  }
+
+  /* (non-Javadoc)
+   * @see edu.unh.ai.search.SearchAlgorithm#search(java.lang.Object)
+   */
+  public SearchResult<MSAState> search() {
+    double cost = 0;
+    MSANode initNode = domain.initialNode();
+    open(new MNH(initNode));
+
+    Thread threads[] = new Thread[numThreads];
+    for (int i=0; i<numThreads; i++) {
+      threads[i] = new Thread(new Worker());
+      threads[i].start();
+    }
+
+    while (true) {
+      // fill the pipeline, a goal must wait for the nodes before it
+      boolean solved = false;
+      while (head - tail < ring.length && !open.isEmpty()) {
+        MSANode n = open.peek().node;
+        if (domain.isGoal(n.packed)) {
+          solved = (head == tail);
+          break;
+        }
+        open.poll();
+        submit(n);
+      }
+      if (solved) {
+        MSANode n = open.peek().node;
+        cost = n.g;
+        domain.goal = n;
+        for (MSANode p = n; p != null; p = p.parent) {
+          path.add(domain.unpack(p.packed, p.e));
+        }
+        break;
+      }
+      if (head == tail) {
+        break;
+      }
+      merge(ring[(int)(tail++ % ring.length)]);
+    }
+
+    try {
+      for (int i=0; i<numThreads; i++) {
+        tasks.put(new Slot()); // no node, stops a worker
+      }
+      for (Thread t : threads) {
+        t.join();
+      }
+    } catch (InterruptedException e) {
+      throw new RuntimeException(e);
+    }
+
+    SearchResult<MSAState> result =
+        new SearchResult<MSAState>(path, expanded, generated);
+    result.setProperty("duplicates", Long.toString(duplicates));
+    result.setProperty("lookahead", ring.length);
+    result.setProperty("pipeline waits", Long.toString(waits));
+    result.setProperty("threads", numThreads);
+    result.setCost(cost);
+    return result;
+  }
+
+  /*
+   * Puts a copy of the node in the next slot and hands it to the workers.
+   */
+  private void submit(MSANode n) {
+    expanded++;
+    Slot slot = ring[(int)(head++ % ring.length)];
+    MSANode copy = new MSANode();
+    copy.packed = n.packed;
+    copy.e = n.e;
+    copy.f = n.f;
+    copy.g = n.g;
+    copy.parent = n.parent;
+    slot.node = copy;
+    slot.done = false;
+    try {
+      tasks.put(slot);
+    } catch (InterruptedException e) {
+      throw new RuntimeException(e);
+    }
+  }
+
+  /*
+   * Waits for the slot to be expanded and merges the children into the 
+   * open and closed lists.
+   */
+  private void merge(Slot slot) {
+    if (!slot.done) {
+      waits++;
+      while (!slot.done) {
+        Thread.yield();
+      }
+    }
+    MSANode children[] = slot.children;
+    for (int i=0; i<slot.count; i++) {
+      MSANode child = children[i];
+      MNH dup = (MNH)closed[child.e].get(child.packed);
+      if (dup != null) {
+        duplicates++;
+        if (child.g >= dup.node.g) {
+          continue;
+        }
+        dup.node.f = child.f;
+        dup.node.g = child.g;
+        dup.node.parent = child.parent;
+        if (dup.index != -1) {
+          open.update(dup.index);
+        }
+        else {
+          open.add(dup);
+        }
+      }
+      else {
+        open(new MNH(child));
+        generated++;
+      }
+    }
+    slot.node = null;
+    slot.children = null;
+  }
+
+  private void open(MNH mnh) {
+    open.add(mnh);
+    closed[mnh.node.e].put(mnh.node.packed, mnh);
+  }
+
+  /*
+   * A worker expands the nodes of the slots it takes from the queue.
+   */
+  private final class Worker implements Runnable {
+    private MSAState state = domain.copy(domain.initial());
+
+    public void run() {
+      try {
+        while (true) {
+          Slot slot = tasks.take();
+          MSANode n = slot.node;
+          if (n == null) {
+            return;
+          }
+          MSANode children[] = new MSANode[domain.getNumOps()];
+          for (int i=0; i<children.length; i++) {
+            children[i] = new MSANode();
+          }
+          domain.unpack(n.packed, n.e, state);
+          slot.count = domain.expand(state, n, children);
+          slot.children = children;
+          slot.done = true;
+        }
+      } catch (InterruptedException e) {
+        throw new RuntimeException(e);
+      }
+    }
+  }
+
+  /*
+   * A slot of the ring.  The worker writes the children before it sets
+   * done, the calling thread reads them after it sees done.
+   */
+  private static final class Slot {
+    private MSANode node;
+    private MSANode children[];
+    private int count;
+    private volatile boolean done;
+  }
+
+  /*
+   * Wrapper for MSANode to make heapable
+   */
+  private static final class MNH implements Indexable {
+    private MSANode node;
+    private int index = -1;
+    public MNH(MSANode node) {
+      this.node = node;
+    }
+    public int getIndex() {
+      return index;
+    }
+    public void setIndex(int index) {
+      this.index = index;
+    }
+  }
+
+  /*
+   * The node comparator class
+   */
+  private static final class NodeComparator implements Comparator<MNH> {
+    public int compare(final MNH a, final MNH b) {
+      if (a.node.f == b.node.f) {
+        if (a.node.g > b.node.g) return -1;
+        if (a.node.g < b.node.g) return 1;
+        return 0;
+      }
+      else {
+        if (a.node.f < b.node.f) return -1;
+        if (a.node.f > b.node.f) return 1;
+        return 0;
+      }
+    }
+  }
+
+}
@@ -0,0 +1,299 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.matthatem.ai.msa.algorithms;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+
+import com.carrotsearch.hppc.LongObjectOpenHashMap;
+import com.matthatem.ai.msa.MSA;
+import com.matthatem.ai.msa.MSA.MSANode;
+import com.matthatem.ai.msa.MSA.MSAState;
+import com.matthatem.ai.msa.collections.BinHeap;
+import com.matthatem.ai.msa.collections.Indexable;
+import com.matthatem.ai.msa.collections.MinMaxHeap;
+
+
+/**
+ * An implementation of simplified memory-bounded A* (SMA*) tailored to
+ * the MSA domain.  Nodes form a tree of best known parents.  The leaves
+ * of the tree are kept on a double-ended queue and the inner nodes that
+ * still have children to generate on a separate open list.  When more
+ * nodes than the budget are stored the leaf with the highest f is
+ * removed from open and closed.  Its parent remembers the operator and
+ * the lowest f of its forgotten children so the children can be
+ * regenerated later.  Regenerated children inherit the backed up f
+ * value.
+ *
+ * @author Matthew Hatem
+ */
+public final class SMAstar implements SearchAlgorithm {
+
+  private LongObjectOpenHashMap closed[];
+  private MinMaxHeap<MNH> leaves = new MinMaxHeap<MNH>(new NodeComparator());
+  private BinHeap<MNH> open = new BinHeap<MNH>(new NodeComparator());
+  private Comparator<MNH> cmp = new NodeComparator();
+  private List<MSAState> path = new ArrayList<MSAState>(3);
+  private MSA domain;
+  private long budget;
+  private long stored;
+  private long expanded;
+  private long generated;
+  private long duplicates;
+  private long forgotten;
+  private long regenerated;
+  private MSAState state;
+  private MSANode children[];
+
+  /**
+   * The constructor.
+   *
+   * @param domain the search domain
+   * @param budget the maximum number of nodes stored
+   */
+  public SMAstar(final MSA domain, long budget) {
+    this.domain = domain;
+    this.budget = budget;
+    this.children = new MSANode[domain.getNumOps()];
+    this.closed = new LongObjectOpenHashMap[domain.getNumOps()+1];
+    this.closed[domain.getNumOps()] = new LongObjectOpenHashMap<MNH>(); // root op
+    for (int i=0; i<this.children.length; i++) {
+      this.children[i] = new MSANode();
+      this.closed[i] = new LongObjectOpenHashMap<MNH>();
+    }
+  }
+
+  /* (non-Javadoc)
+   * @see edu.unh.ai.search.SearchAlgorithm#search(java.lang.Object)
+   */
+  public SearchResult<MSAState> search() {
+    double cost = 0;
+    state = domain.initial();
+    MSANode initNode = domain.initialNode();
+    MNH root = new MNH(initNode, null);
+    closed[initNode.e].put(initNode.packed, root);
+    stored++;
+    reposition(root);
+
+    while (!open.isEmpty() || !leaves.isEmpty()) {
+      MNH mnh;
+      if (leaves.isEmpty()
+          || (!open.isEmpty() && cmp.compare(open.peek(), leaves.peek()) < 0)) {
+        mnh = open.poll();
+      }
+      else {
+        mnh = leaves.poll();
+      }
+      if (mnh.key == Double.POSITIVE_INFINITY) {
+        break;
+      }
+      MSANode n = mnh.node;
+      if (mnh.full && domain.isGoal(n.packed)) {
+        cost = n.g;
+        domain.goal = n;
+        for (MSANode p = n; p != null; p = p.parent) {
+          path.add(domain.unpack(p.packed, p.e));
+        }
+        break;
+      }
+      expand(mnh);
+      while (stored > budget && prune()) {
+        forgotten++;
+      }
+    }
+
+    SearchResult<MSAState> result =
+        new SearchResult<MSAState>(path, expanded, generated);
+    result.setProperty("duplicates", Long.toString(duplicates));
+    result.setProperty("forgotten", Long.toString(forgotten));
+    result.setProperty("regenerated", Long.toString(regenerated));
+    result.setProperty("budget", Long.toString(budget));
+    result.setCost(cost);
+    return result;
+  }
+
+  /*
+   * Generates the children of the node.  A node that has already been
+   * expanded only regenerates its forgotten children.
+   */
+  private void expand(MNH mnh) {
+    expanded++;
+    MSANode n = mnh.node;
+    domain.unpack(n.packed, n.e, state);
+    int count = domain.expand(state, n, children);
+
+    for (int i=0; i<count; i++) {
+      MSANode child = children[i];
+      if (!mnh.full) {
+        if ((mnh.mask & (1L << child.e)) == 0) {
+          continue;
+        }
+        // the forgotten children share the backed up f value
+        child.f = Math.max(child.f, mnh.forgotten);
+        regenerated++;
+      }
+      children[i] = new MSANode(); // reset!
+      MNH dup = (MNH)closed[child.e].get(child.packed);
+      if (dup != null) {
+        duplicates++;
+        if (child.g >= dup.node.g) {
+          continue;
+        }
+        // move the node under its new parent and expand it again
+        MNH old = dup.parent;
+        if (old != null) {
+          old.kids--;
+          reposition(old);
+        }
+        dup.node.f = Math.max(child.f, child.g + dup.node.f - dup.node.g);
+        dup.node.g = child.g;
+        dup.node.parent = n;
+        dup.parent = mnh;
+        dup.full = true;
+        mnh.kids++;
+        reposition(dup);
+      }
+      else {
+        MNH c = new MNH(child, mnh);
+        closed[child.e].put(child.packed, c);
+        mnh.kids++;
+        stored++;
+        generated++;
+        reposition(c);
+      }
+    }
+    mnh.full = false;
+    mnh.mask = 0;
+    mnh.forgotten = Double.POSITIVE_INFINITY;
+    reposition(mnh);
+  }
+
+  /*
+   * Removes the leaf with the highest f value.  Returns false if there
+   * is no leaf that can be removed.
+   */
+  private boolean prune() {
+    MNH leaf = leaves.peekMax();
+    if (leaf == null || leaf.parent == null) {
+      return false;
+    }
+    leaves.remove(leaf.index);
+    closed[leaf.node.e].remove(leaf.node.packed);
+    stored--;
+    // back up the f value into the parent
+    MNH parent = leaf.parent;
+    parent.kids--;
+    if (leaf.key < Double.POSITIVE_INFINITY) {
+      parent.mask |= 1L << leaf.node.e;
+      parent.forgotten = Math.min(parent.forgotten, leaf.key);
+    }
+    reposition(parent);
+    return true;
+  }
+
+  /*
+   * Updates the key of a node and its place in the queues.  Every leaf is
+   * on the leaf queue, so that it can be removed.  Inner nodes are on the
+   * open list if they need to be expanded again or have forgotten
+   * children.
+   */
+  private void reposition(MNH mnh) {
+    if (mnh.full) {
+      mnh.key = mnh.node.f;
+    }
+    else if (mnh.mask != 0) {
+      mnh.key = mnh.forgotten;
+    }
+    else {
+      mnh.key = Double.POSITIVE_INFINITY;
+    }
+    boolean leaf = mnh.kids == 0;
+    boolean inner = !leaf && mnh.key < Double.POSITIVE_INFINITY;
+    if (mnh.index != -1) {
+      if (mnh.leaf == leaf && (leaf || inner)) {
+        if (leaf) {
+          leaves.update(mnh.index);
+        }
+        else {
+          open.update(mnh.index);
+        }
+        return;
+      }
+      if (mnh.leaf) {
+        leaves.remove(mnh.index);
+      }
+      else {
+        open.remove(mnh.index);
+      }
+    }
+    mnh.leaf = leaf;
+    if (leaf) {
+      leaves.add(mnh);
+    }
+    else if (inner) {
+      open.add(mnh);
+    }
+  }
+
+  /*
+   * Wrapper for MSANode.  The node remembers its parent in the tree, the
+   * number of children that name it as their parent and the operators of
+   * its forgotten children.  Nodes that need a full expansion are ordered
+   * by f and others by the lowest f of their forgotten children.
+   */
+  private final class MNH implements Indexable {
+    private MSANode node;
+    private MNH parent;
+    private int kids;
+    private boolean full = true;
+    private long mask;
+    private double forgotten = Double.POSITIVE_INFINITY;
+    private double key;
+    private boolean leaf;
+    private int index = -1;
+    public MNH(MSANode node, MNH parent) {
+      this.node = node;
+      this.parent = parent;
+    }
+    public int getIndex() {
+      return index;
+    }
+    public void setIndex(int index) {
+      this.index = index;
+    }
+  }
+
+  /*
+   * The node comparator class
+   */
+  private final class NodeComparator implements Comparator<MNH> {
+    public int compare(final MNH a, final MNH b) {
+      if (a.key == b.key) {
+        if (a.node.g > b.node.g) return -1;
+        if (a.node.g < b.node.g) return 1;
+        return 0;
+      }
+      else {
+        if (a.key < b.key) return -1;
+        if (a.key > b.key) return 1;
+        return 0;
+      }
+    }
+  }
+
+}
@@ -0,0 +1,395 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.matthatem.ai.msa.algorithms;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.concurrent.atomic.AtomicReferenceFieldUpdater;
+import java.util.concurrent.locks.ReentrantLock;
+
+import com.matthatem.ai.msa.MSA;
+import com.matthatem.ai.msa.MSA.MSANode;
+import com.matthatem.ai.msa.MSA.MSAState;
+import com.matthatem.ai.msa.collections.BinHeap;
+import com.matthatem.ai.msa.collections.Indexable;
+
+
+/**
+ * A shared memory parallel A* tailored to the MSA domain.  All threads 
+ * share one closed table and one open list.  The closed table is a 
+ * lock-free chained hash table keyed on the packed state and incoming 
+ * edge, the best node of an entry is replaced with compare-and-set so a 
+ * thread only succeeds in improving g if no other thread did better.
+ * The open list is a MultiQueue, a relaxed priority queue made of 
+ * several heaps, each with its own lock.  A node is added to a random 
+ * heap and removed from the better of two random heaps.  Nodes that were
+ * improved after they were added to the open list are skipped.
+ *
+ * The nodes are not expanded in strict best-first order, so nodes may be
+ * reopened.  A goal becomes the incumbent solution and nodes with f no 
+ * better than the incumbent are pruned.  A counter of the nodes that are 
+ * in the open list or being expanded tells when no node better than the
+ * incumbent remains, the incumbent is then optimal.
+ *
+ * @author Matthew Hatem
+ */
+public final class SharedAstar implements SearchAlgorithm {
+
+  /*
+   * The number of heaps in the MultiQueue per thread.
+   */
+  private static final int QUEUES_PER_THREAD = 2;
+
+  /*
+   * The default number of buckets in the closed table.
+   */
+  private static final int DEFAULT_BUCKETS = 1<<22;
+
+  private static final AtomicReferenceFieldUpdater<Entry, MSANode> BEST =
+      AtomicReferenceFieldUpdater.newUpdater(Entry.class, MSANode.class, "best");
+
+  private List<MSAState> path = new ArrayList<MSAState>(3);
+  private MSA domain;
+  private int numThreads;
+  private AtomicReferenceArray<Entry> closed;
+  private int mask;
+  private Queue queues[];
+  private AtomicLong pending = new AtomicLong();
+  private volatile boolean done;
+  private volatile double incumbent = Double.POSITIVE_INFINITY;
+  private MSANode goal;
+
+  /**
+   * The constructor.
+   *
+   * @param domain the search domain
+   * @param numThreads the number of threads
+   */
+  public SharedAstar(final MSA domain, int numThreads) {
+    this(domain, numThreads, DEFAULT_BUCKETS);
+  }
+
+  /**
+   * The constructor.
+   *
+   * @param domain the search domain
+   * @param numThreads the number of threads
+   * @param buckets the number of buckets in the closed table, rounded up 
+   * to a power of two
+   */
+  public SharedAstar(final MSA domain, int numThreads, int buckets) {
+    this.domain = domain;
+    this.numThreads = Math.max(1, numThreads);
+    int size = Integer.highestOneBit(Math.max(1, buckets - 1)) << 1;
+    this.closed = new AtomicReferenceArray<Entry>(size);
+    this.mask = size - 1;
+    this.queues = new Queue[this.numThreads * QUEUES_PER_THREAD];
+    for (int i=0; i<queues.length; i++) {
+      queues[i] = new Queue();
+    }
+  }
+
+  /* (non-Javadoc)
+   * @see edu.unh.ai.search.SearchAlgorithm#search(java.lang.Object)
+   */
+  public SearchResult<MSAState> search() {
+    double cost = 0;
+    Worker workers[] = new Worker[numThreads];
+    for (int i=0; i<numThreads; i++) {
+      workers[i] = new Worker(i);
+    }
+    workers[0].insert(domain.initialNode());
+
+    Thread threads[] = new Thread[numThreads];
+    for (int i=0; i<numThreads; i++) {
+      threads[i] = new Thread(workers[i]);
+      threads[i].start();
+    }
+    try {
+      for (Thread t : threads) {
+        t.join();
+      }
+    } catch (InterruptedException e) {
+      throw new RuntimeException(e);
+    }
+
+    if (goal != null) {
+      cost = goal.g;
+      domain.goal = goal;
+      for (MSANode p = goal; p != null; p = p.parent) {
+        path.add(domain.unpack(p.packed, p.e));
+      }
+    }
+
+    long expanded = 0, generated = 0, duplicates = 0, stale = 0;
+    long maxExpanded = 0;
+    for (Worker w : workers) {
+      expanded += w.expanded;
+      generated += w.generated;
+      duplicates += w.duplicates;
+      stale += w.stale;
+      maxExpanded = Math.max(maxExpanded, w.expanded);
+    }
+    SearchResult<MSAState> result =
+        new SearchResult<MSAState>(path, expanded, generated);
+    result.setProperty("duplicates", Long.toString(duplicates));
+    result.setProperty("stale", Long.toString(stale));
+    result.setProperty("max worker expanded", Long.toString(maxExpanded));
+    result.setProperty("queues", queues.length);
+    result.setProperty("threads", numThreads);
+    result.setCost(cost);
+    return result;
+  }
+
+  /*
+   * Records a goal if it is better than the incumbent.
+   */
+  private synchronized void solution(MSANode node) {
+    if (node.g < incumbent) {
+      goal = node;
+      incumbent = node.g;
+    }
+  }
+
+  /*
+   * A worker thread removes nodes from the MultiQueue and expands them.
+   */
+  private final class Worker implements Runnable {
+    private Random random;
+    private MSAState state;
+    private MSANode children[];
+    private long expanded;
+    private long generated;
+    private long duplicates;
+    private long stale;
+
+    public Worker(int id) {
+      this.random = new Random(id);
+      this.state = domain.copy(domain.initial());
+      this.children = new MSANode[domain.getNumOps()];
+    }
+
+    public void run() {
+      while (!done) {
+        Item item = poll();
+        if (item == null) {
+          // nodes are still being expanded or added
+          if (pending.get() == 0) {
+            done = true;
+          }
+          else {
+            Thread.yield();
+          }
+          continue;
+        }
+        if (item.entry.best != item.node) {
+          stale++;
+        }
+        else if (item.node.f < incumbent) {
+          expand(item.node);
+        }
+        pending.decrementAndGet();
+      }
+    }
+
+    private void expand(MSANode n) {
+      expanded++;
+      domain.unpack(n.packed, n.e, state);
+      for (int i=0; i<children.length; i++) {
+        children[i] = new MSANode();
+      }
+      int count = domain.expand(state, n, children);
+      for (int i=0; i<count; i++) {
+        MSANode child = children[i];
+        generated++;
+        if (child.f >= incumbent) {
+          continue;
+        }
+        if (domain.isGoal(child.packed)) {
+          solution(child);
+          continue;
+        }
+        insert(child);
+      }
+    }
+
+    /*
+     * Adds a node to the closed table and the open list, unless it is a
+     * duplicate that is no better than the stored node.
+     */
+    private void insert(MSANode node) {
+      int bucket = hash(node.packed, node.e) & mask;
+      Entry entry = null;
+      while (entry == null) {
+        Entry head = closed.get(bucket);
+        for (Entry x = head; x != null; x = x.next) {
+          if (x.packed == node.packed && x.e == node.e) {
+            entry = x;
+            break;
+          }
+        }
+        if (entry == null) {
+          Entry e = new Entry(node.packed, node.e, head, node);
+          if (closed.compareAndSet(bucket, head, e)) {
+            add(new Item(node, e));
+            return;
+          }
+        }
+      }
+      duplicates++;
+      while (true) {
+        MSANode best = entry.best;
+        if (node.g >= best.g) {
+          return;
+        }
+        if (BEST.compareAndSet(entry, best, node)) {
+          add(new Item(node, entry));
+          return;
+        }
+      }
+    }
+
+    /*
+     * Adds an item to a random heap whose lock is free.
+     */
+    private void add(Item item) {
+      pending.incrementAndGet();
+      while (true) {
+        Queue q = queues[random.nextInt(queues.length)];
+        if (q.lock.tryLock()) {
+          try {
+            q.heap.add(item);
+            q.top = q.heap.peek().node.f;
+          } finally {
+            q.lock.unlock();
+          }
+          return;
+        }
+      }
+    }
+
+    /*
+     * Removes the best item of the better of two random heaps.  Returns
+     * null if every heap is empty.
+     */
+    private Item poll() {
+      while (true) {
+        Queue a = queues[random.nextInt(queues.length)];
+        Queue b = queues[random.nextInt(queues.length)];
+        Queue q = (b.top < a.top) ? b : a;
+        if (q.top == Double.POSITIVE_INFINITY) {
+          q = null;
+          for (Queue x : queues) {
+            if (x.top != Double.POSITIVE_INFINITY) {
+              q = x;
+              break;
+            }
+          }
+          if (q == null) {
+            return null;
+          }
+        }
+        if (q.lock.tryLock()) {
+          try {
+            if (!q.heap.isEmpty()) {
+              Item item = q.heap.poll();
+              q.top = q.heap.isEmpty() ? 
+                  Double.POSITIVE_INFINITY : q.heap.peek().node.f;
+              return item;
+            }
+          } finally {
+            q.lock.unlock();
+          }
+        }
+      }
+    }
+  }
+
+  private static int hash(long packed, byte e) {
+    long key = (packed * 31 + e) * 0x9E3779B97F4A7C15L;
+    return (int)(key >>> 32);
+  }
+
+  /*
+   * An entry of the closed table.  The best node is only replaced by a 
+   * node with lower g.
+   */
+  private static final class Entry {
+    private final long packed;
+    private final byte e;
+    private final Entry next;
+    volatile MSANode best; // not private, updated with BEST
+    public Entry(long packed, byte e, Entry next, MSANode best) {
+      this.packed = packed;
+      this.e = e;
+      this.next = next;
+      this.best = best;
+    }
+  }
+
+  /*
+   * A heap of the MultiQueue and its lock.  The f of the best item can be
+   * read without the lock.
+   */
+  private static final class Queue {
+    private ReentrantLock lock = new ReentrantLock();
+    private BinHeap<Item> heap = new BinHeap<Item>(new ItemComparator());
+    private volatile double top = Double.POSITIVE_INFINITY;
+  }
+
+  /*
+   * A node in the open list and its entry in the closed table.
+   */
+  private static final class Item implements Indexable {
+    private final MSANode node;
+    private final Entry entry;
+    private int index = -1;
+    public Item(MSANode node, Entry entry) {
+      this.node = node;
+      this.entry = entry;
+    }
+    public int getIndex() {
+      return index;
+    }
+    public void setIndex(int index) {
+      this.index = index;
+    }
+  }
+
+  /*
+   * The item comparator class
+   */
+  private static final class ItemComparator implements Comparator<Item> {
+    public int compare(final Item a, final Item b) {
+      if (a.node.f == b.node.f) {
+        if (a.node.g > b.node.g) return -1;
+        if (a.node.g < b.node.g) return 1;
+        return 0;
+      }
+      else {
+        if (a.node.f < b.node.f) return -1;
+        if (a.node.f > b.node.f) return 1;
+        return 0;
+      }
+    }
+  }
+
+}
@@ -43,6 +43,12 @@ public class BinHeap<T extends Indexable> {
 	  return heap.size();
 	}
 	
+	public T peek() {
+		if (heap.isEmpty())
+		  return null;
+		return heap.get(0);
+	}
+	
 	public T poll() {
 		if (heap.isEmpty())
 		  return null;		
@@ -66,6 +72,20 @@ public class BinHeap<T extends Indexable> {
 	  pullUp(heap.size()-1);
 	}
 	
+	public T remove(int i) {
+	  if (i < 0 || i >= heap.size())
+	    throw new IllegalArgumentException();
+	  T t = heap.get(i);
+	  setIndex(t, -1);
+	  T b = heap.remove(heap.size()-1);
+	  if (i < heap.size()) {
+	    heap.set(i, b);
+	    setIndex(b, i);
+	    update(i);
+	  }
+	  return t;
+	}
+	
 	public void clear() {
 	  heap.clear();
 	}
@@ -0,0 +1,193 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.matthatem.ai.msa.collections;
+
+/**
+ * A growable buffer of nodes stored in parallel primitive arrays.  Each
+ * entry is identified by a packed state and an edge id and carries a g
+ * value and a long payload.  Duplicates are removed by sorting the
+ * buffer and keeping the entry with the smallest g value.
+ *
+ * @author Matthew Hatem
+ */
+public class LayerBuffer {
+
+  private static final int INSERTION_SORT = 16;
+
+  private long packed[];
+  private byte e[];
+  private double g[];
+  private long data[];
+  private int size;
+
+  public LayerBuffer() {
+    this(1024);
+  }
+
+  public LayerBuffer(int capacity) {
+    this.packed = new long[capacity];
+    this.e = new byte[capacity];
+    this.g = new double[capacity];
+    this.data = new long[capacity];
+  }
+
+  public int size() {
+    return size;
+  }
+
+  public boolean isEmpty() {
+    return size == 0;
+  }
+
+  public void clear() {
+    size = 0;
+  }
+
+  public long getPacked(int i) {
+    return packed[i];
+  }
+
+  public byte getE(int i) {
+    return e[i];
+  }
+
+  public double getG(int i) {
+    return g[i];
+  }
+
+  public long getData(int i) {
+    return data[i];
+  }
+
+  public void add(long packed, byte e, double g, long data) {
+    if (size == this.packed.length) {
+      grow(size + 1);
+    }
+    this.packed[size] = packed;
+    this.e[size] = e;
+    this.g[size] = g;
+    this.data[size] = data;
+    size++;
+  }
+
+  public void addAll(LayerBuffer other) {
+    if (size + other.size > packed.length) {
+      grow(size + other.size);
+    }
+    System.arraycopy(other.packed, 0, packed, size, other.size);
+    System.arraycopy(other.e, 0, e, size, other.size);
+    System.arraycopy(other.g, 0, g, size, other.size);
+    System.arraycopy(other.data, 0, data, size, other.size);
+    size += other.size;
+  }
+
+  /**
+   * Sorts the buffer by state and removes duplicate entries, keeping the
+   * entry with the smallest g value.
+   *
+   * @return the number of duplicates removed
+   */
+  public int merge() {
+    if (size < 2) {
+      return 0;
+    }
+    sort(0, size-1);
+    int w = 0;
+    for (int r=1; r<size; r++) {
+      if (packed[r] == packed[w] && e[r] == e[w]) {
+        if (g[r] < g[w]) {
+          g[w] = g[r];
+          data[w] = data[r];
+        }
+      }
+      else {
+        w++;
+        move(r, w);
+      }
+    }
+    int removed = size - (w+1);
+    size = w+1;
+    return removed;
+  }
+
+  private void grow(int min) {
+    int capacity = Math.max(min, packed.length + (packed.length >> 1));
+    long newPacked[] = new long[capacity];
+    byte newE[] = new byte[capacity];
+    double newG[] = new double[capacity];
+    long newData[] = new long[capacity];
+    System.arraycopy(packed, 0, newPacked, 0, size);
+    System.arraycopy(e, 0, newE, 0, size);
+    System.arraycopy(g, 0, newG, 0, size);
+    System.arraycopy(data, 0, newData, 0, size);
+    packed = newPacked; e = newE; g = newG; data = newData;
+  }
+
+  private void sort(int lo, int hi) {
+    while (hi - lo > INSERTION_SORT) {
+      // median of three
+      int mid = (lo + hi) >>> 1;
+      if (compare(mid, lo) < 0) swap(mid, lo);
+      if (compare(hi, lo) < 0) swap(hi, lo);
+      if (compare(hi, mid) < 0) swap(hi, mid);
+      swap(mid, hi-1);
+      int p = hi-1, i = lo, j = hi-1;
+      for (;;) {
+        while (compare(++i, p) < 0);
+        while (compare(--j, p) > 0);
+        if (i >= j) break;
+        swap(i, j);
+      }
+      swap(i, hi-1);
+      // recurse on the smaller partition
+      if (i - lo < hi - i) {
+        sort(lo, i-1);
+        lo = i+1;
+      }
+      else {
+        sort(i+1, hi);
+        hi = i-1;
+      }
+    }
+    for (int i=lo+1; i<=hi; i++) {
+      for (int j=i; j>lo && compare(j, j-1) < 0; j--) {
+        swap(j, j-1);
+      }
+    }
+  }
+
+  private int compare(int a, int b) {
+    if (packed[a] < packed[b]) return -1;
+    if (packed[a] > packed[b]) return 1;
+    return e[a] - e[b];
+  }
+
+  private void move(int from, int to) {
+    packed[to] = packed[from];
+    e[to] = e[from];
+    g[to] = g[from];
+    data[to] = data[from];
+  }
+
+  private void swap(int a, int b) {
+    long p = packed[a]; packed[a] = packed[b]; packed[b] = p;
+    byte t = e[a]; e[a] = e[b]; e[b] = t;
+    double d = g[a]; g[a] = g[b]; g[b] = d;
+    long l = data[a]; data[a] = data[b]; data[b] = l;
+  }
+
+}
@@ -0,0 +1,208 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.matthatem.ai.msa.collections;
+
+import java.util.Comparator;
+
+/**
+ * A double-ended priority queue where elements are aware of their
+ * location (index) in the queue.  Both the best and the worst element
+ * can be removed.  The queue is a pair of binary heaps, a min heap and a
+ * max heap, over the same elements.  The index of an element is its slot
+ * in the element array and both heaps store slots.
+ *
+ * @author Matthew Hatem
+ */
+public class MinMaxHeap<T extends Indexable> {
+
+  private final Comparator<T> cmp;
+  private Object items[];
+  private int minHeap[], maxHeap[];
+  private int minPos[], maxPos[];
+  private int size;
+
+  public MinMaxHeap(Comparator<T> cmp) {
+    this.cmp = cmp;
+    this.items = new Object[16];
+    this.minHeap = new int[16];
+    this.maxHeap = new int[16];
+    this.minPos = new int[16];
+    this.maxPos = new int[16];
+  }
+
+  public boolean isEmpty() {
+    return size == 0;
+  }
+
+  public int size() {
+    return size;
+  }
+
+  public T peek() {
+    if (size == 0)
+      return null;
+    return get(minHeap[0]);
+  }
+
+  public T peekMax() {
+    if (size == 0)
+      return null;
+    return get(maxHeap[0]);
+  }
+
+  public T poll() {
+    if (size == 0)
+      return null;
+    return remove(minHeap[0]);
+  }
+
+  public T pollMax() {
+    if (size == 0)
+      return null;
+    return remove(maxHeap[0]);
+  }
+
+  public void add(T t) {
+    if (size == items.length) {
+      grow();
+    }
+    int slot = size++;
+    items[slot] = t;
+    t.setIndex(slot);
+    minHeap[slot] = slot;
+    minPos[slot] = slot;
+    maxHeap[slot] = slot;
+    maxPos[slot] = slot;
+    pullUp(minHeap, minPos, slot, 1);
+    pullUp(maxHeap, maxPos, slot, -1);
+  }
+
+  public void update(int i) {
+    if (i < 0 || i >= size)
+      throw new IllegalArgumentException();
+    pushDown(minHeap, minPos, pullUp(minHeap, minPos, minPos[i], 1), 1);
+    pushDown(maxHeap, maxPos, pullUp(maxHeap, maxPos, maxPos[i], -1), -1);
+  }
+
+  public T remove(int i) {
+    if (i < 0 || i >= size)
+      throw new IllegalArgumentException();
+    T t = get(i);
+    removeAt(minHeap, minPos, minPos[i], 1);
+    removeAt(maxHeap, maxPos, maxPos[i], -1);
+    // move the last element into the free slot
+    int last = size - 1;
+    if (i != last) {
+      items[i] = items[last];
+      get(i).setIndex(i);
+      minHeap[minPos[last]] = i;
+      minPos[i] = minPos[last];
+      maxHeap[maxPos[last]] = i;
+      maxPos[i] = maxPos[last];
+    }
+    items[last] = null;
+    size--;
+    t.setIndex(-1);
+    return t;
+  }
+
+  public void clear() {
+    for (int i=0; i<size; i++) {
+      items[i] = null;
+    }
+    size = 0;
+  }
+
+  /*
+   * Removes the entry at position p of a heap, the heap still holds size
+   * entries.
+   */
+  private void removeAt(int heap[], int pos[], int p, int sign) {
+    int last = size - 1;
+    if (p != last) {
+      heap[p] = heap[last];
+      pos[heap[p]] = p;
+      pushDown(heap, pos, pullUp(heap, pos, p, sign), sign, last);
+    }
+  }
+
+  private int pullUp(int heap[], int pos[], int p, int sign) {
+    while (p > 0) {
+      int parent = (p-1)/2;
+      if (compare(heap[p], heap[parent], sign) >= 0)
+        break;
+      swap(heap, pos, p, parent);
+      p = parent;
+    }
+    return p;
+  }
+
+  private void pushDown(int heap[], int pos[], int p, int sign) {
+    pushDown(heap, pos, p, sign, size);
+  }
+
+  private void pushDown(int heap[], int pos[], int p, int sign, int n) {
+    for (;;) {
+      int l = 2*p + 1;
+      int r = l + 1;
+      int sml = p;
+      if (l < n && compare(heap[l], heap[sml], sign) < 0)
+        sml = l;
+      if (r < n && compare(heap[r], heap[sml], sign) < 0)
+        sml = r;
+      if (sml == p)
+        break;
+      swap(heap, pos, p, sml);
+      p = sml;
+    }
+  }
+
+  private int compare(int a, int b, int sign) {
+    return sign * cmp.compare(get(a), get(b));
+  }
+
+  private void swap(int heap[], int pos[], int i, int j) {
+    int t = heap[i];
+    heap[i] = heap[j];
+    heap[j] = t;
+    pos[heap[i]] = i;
+    pos[heap[j]] = j;
+  }
+
+  @SuppressWarnings("unchecked")
+  private T get(int slot) {
+    return (T)items[slot];
+  }
+
+  private void grow() {
+    int capacity = items.length * 2;
+    Object newItems[] = new Object[capacity];
+    System.arraycopy(items, 0, newItems, 0, size);
+    items = newItems;
+    minHeap = copy(minHeap, capacity);
+    maxHeap = copy(maxHeap, capacity);
+    minPos = copy(minPos, capacity);
+    maxPos = copy(maxPos, capacity);
+  }
+
+  private static int[] copy(int a[], int capacity) {
+    int b[] = new int[capacity];
+    System.arraycopy(a, 0, b, 0, a.length);
+    return b;
+  }
+
+}
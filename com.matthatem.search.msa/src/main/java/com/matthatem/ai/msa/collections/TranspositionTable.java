@@ -0,0 +1,138 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.matthatem.ai.msa.collections;
+
+/**
+ * A fixed-capacity transposition table stored in parallel primitive
+ * arrays.  Entries are keyed by a packed state and an edge id and hold
+ * a g value, a heuristic value and the iteration that stored them.  The
+ * table is organized in buckets of two entries.  When a bucket is full
+ * the entry from the older iteration is replaced, and otherwise the
+ * entry with the larger g value.
+ *
+ * @author Matthew Hatem
+ */
+public class TranspositionTable {
+
+  /*
+   * The number of bytes used by each entry.
+   */
+  public static final int ENTRY_SIZE = 8 + 1 + 8 + 8 + 4;
+
+  private long packed[];
+  private byte e[];
+  private double g[];
+  private double h[];
+  private int iteration[];
+  private int mask;
+  private long replaced;
+
+  /**
+   * The constructor.  The capacity is the largest power of two that fits
+   * in the specified number of bytes.
+   *
+   * @param bytes the memory available to the table
+   */
+  public TranspositionTable(long bytes) {
+    long entries = Math.max(2, bytes / ENTRY_SIZE);
+    int capacity = Integer.highestOneBit((int)Math.min(entries, 1 << 30));
+    this.packed = new long[capacity];
+    this.e = new byte[capacity];
+    this.g = new double[capacity];
+    this.h = new double[capacity];
+    this.iteration = new int[capacity];
+    this.mask = (capacity - 1) & ~1;
+  }
+
+  public int capacity() {
+    return packed.length;
+  }
+
+  public long getReplaced() {
+    return replaced;
+  }
+
+  /**
+   * Returns the slot of the entry or -1 if it is not in the table.
+   */
+  public int find(long packed, byte e) {
+    int slot = bucket(packed, e);
+    for (int i=slot; i<slot+2; i++) {
+      if (iteration[i] != 0 && this.packed[i] == packed && this.e[i] == e) {
+        return i;
+      }
+    }
+    return -1;
+  }
+
+  /**
+   * Stores an entry, replacing an entry in the bucket if it is full.
+   * Iterations must be greater than zero.
+   *
+   * @return the slot of the entry
+   */
+  public int store(long packed, byte e, double g, double h, int iteration) {
+    int slot = bucket(packed, e);
+    int victim = -1;
+    for (int i=slot; i<slot+2; i++) {
+      if (this.iteration[i] == 0
+          || (this.packed[i] == packed && this.e[i] == e)) {
+        victim = i;
+        break;
+      }
+    }
+    if (victim < 0) {
+      int a = slot, b = slot+1;
+      if (this.iteration[a] != this.iteration[b]) {
+        victim = this.iteration[a] < this.iteration[b] ? a : b;
+      }
+      else {
+        victim = this.g[a] >= this.g[b] ? a : b;
+      }
+      replaced++;
+    }
+    this.packed[victim] = packed;
+    this.e[victim] = e;
+    this.g[victim] = g;
+    this.h[victim] = h;
+    this.iteration[victim] = iteration;
+    return victim;
+  }
+
+  public double getG(int slot) {
+    return g[slot];
+  }
+
+  public double getH(int slot) {
+    return h[slot];
+  }
+
+  public int getIteration(int slot) {
+    return iteration[slot];
+  }
+
+  public void setH(int slot, double h) {
+    this.h[slot] = h;
+  }
+
+  private int bucket(long packed, byte e) {
+    long key = (packed * 0x9E3779B97F4A7C15L) ^ (e * 0xC2B2AE3D27D4EB4FL);
+    key ^= key >>> 29;
+    return (int)key & mask;
+  }
+
+}
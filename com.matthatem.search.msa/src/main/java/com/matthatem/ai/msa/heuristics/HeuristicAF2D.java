@@ -50,6 +50,71 @@ public class HeuristicAF2D implements MSAHeuristic {
     this.weight = weight;
     compute();
   }
+  
+  private HeuristicAF2D(HeuristicAF2D h, char[][] seqs, 
+      double[][][][][] scoreTable, double weight) {
+    this.D = h.D;
+    this.seqs = seqs;
+    this.lrGapCost = h.lrGapCost;
+    this.afGapCost = h.afGapCost;
+    this.tmGapCost = h.tmGapCost;
+    this.H2 = h.H2;
+    this.scoreTable = scoreTable;
+    this.weight = weight;
+  }
+  
+  /**
+   * Returns a heuristic with the specified weight that shares the score
+   * tables of this heuristic.
+   * 
+   * @param weight the weight
+   * @return the reweighted heuristic
+   */
+  public HeuristicAF2D reweight(double weight) {
+    return new HeuristicAF2D(this, seqs, scoreTable, weight);
+  }
+  
+  /**
+   * Returns the heuristic of a sub-instance made of some of the sequences,
+   * sharing the score tables of this heuristic.  Sequence k of the 
+   * sub-instance is sequence index[k] of this instance.  Both instances
+   * sort the sequences by length, so the order of a pair only differs 
+   * for sequences of equal length and then the table is transposed.
+   * 
+   * @param index the sequences of the sub-instance
+   * @return the heuristic of the sub-instance
+   */
+  public HeuristicAF2D project(int index[]) {
+    char[][] sub = new char[index.length][];
+    double[][][][][] table = new double[index.length][index.length][][][];
+    for (int i=0; i<index.length; i++) {
+      sub[i] = seqs[index[i]];
+      for (int j=0; j<i; j++) {
+        table[i][j] = index[i] > index[j] 
+            ? scoreTable[index[i]][index[j]]
+            : transpose(scoreTable[index[j]][index[i]]);
+      }
+    }
+    return new HeuristicAF2D(this, sub, table, weight);
+  }
+  
+  /*
+   * Returns the table of the pair with the sequences swapped, horizontal
+   * and vertical moves trade places.
+   */
+  private double[][][] transpose(double P[][][]) {
+    int n = P.length;
+    int m = P[0].length;
+    double T[][][] = new double[m][n][3];
+    for (int x=0; x<n; x++) {
+      for (int y=0; y<m; y++) {
+        T[y][x][DG] = P[x][y][DG];
+        T[y][x][HZ] = P[x][y][VT];
+        T[y][x][VT] = P[x][y][HZ];
+      }
+    }
+    return T;
+  }
 
   private void compute() {
     scoreTable = new double[seqs.length][seqs.length][][][];
@@ -151,6 +216,24 @@ public class HeuristicAF2D implements MSAHeuristic {
     return weight*cost;
   }
   
+  /**
+   * Returns the heuristic term for the pair of sequences i and j, where
+   * j is less than i.
+   * 
+   * @param i the first sequence
+   * @param j the second sequence
+   * @param col the position in sequence i
+   * @param row the position in sequence j
+   * @param di the gap state of sequence i
+   * @param dj the gap state of sequence j
+   * @return the pairwise heuristic
+   */
+  public double getH(int i, int j, int col, int row, int di, int dj) {
+    return weight*min(scoreTable[i][j][col][row][HZ]-H2[di][dj][HZ],
+                      scoreTable[i][j][col][row][VT]-H2[di][dj][VT],
+                      scoreTable[i][j][col][row][DG]);
+  }
+  
   public double getInitH() {
     double cost = 0.0f;
     for (int i=1; i<seqs.length; i++) {
@@ -163,6 +246,47 @@ public class HeuristicAF2D implements MSAHeuristic {
     return weight*cost;
   }
   
+  /**
+   * Returns an optimal pairwise alignment of the sequences i and j, where
+   * j is less than i, traced through the score table.  Entry x holds the
+   * residue of sequence j aligned with residue x of sequence i, or 0 if
+   * residue x is aligned with a gap.  Residues are numbered from 1.
+   * 
+   * @param i the first sequence
+   * @param j the second sequence
+   * @return the residues of sequence j matched to sequence i
+   */
+  public int[] getAlignment(int i, int j) {
+    double P[][][] = scoreTable[i][j];
+    int n = P.length - 1;
+    int m = P[0].length - 1;
+    int match[] = new int[n+1];
+    int x = 0, y = 0;
+    int s = argmin(P[x][y][DG], P[x][y][HZ], P[x][y][VT]);
+    while (x < n && y < m) {
+      if (s == DG) {
+        match[++x] = ++y;
+        s = argmin(P[x][y][DG], P[x][y][HZ], P[x][y][VT]);
+      }
+      else if (s == HZ) {
+        double gapH = (x == 0 ? tmGapCost : afGapCost);
+        y++;
+        s = argmin(P[x][y][DG] + gapH, P[x][y][HZ], P[x][y][VT] + gapH);
+      }
+      else {
+        double gapV = (y == 0 ? tmGapCost : afGapCost);
+        x++;
+        s = argmin(P[x][y][DG] + gapV, P[x][y][HZ] + gapV, P[x][y][VT]);
+      }
+    }
+    return match;
+  }
+  
+  private static final int argmin(double dg, double hz, double vt) {
+    if (dg <= hz && dg <= vt) return DG;
+    return hz <= vt ? HZ : VT;
+  }
+  
   private static final double min(double x, double y, double z) {
     return Math.min(Math.min(x, y), z);
   }
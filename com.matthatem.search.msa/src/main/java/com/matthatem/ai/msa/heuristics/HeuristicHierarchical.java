@@ -0,0 +1,424 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.matthatem.ai.msa.heuristics;
+
+import java.io.ByteArrayInputStream;
+import java.util.Comparator;
+
+import com.carrotsearch.hppc.LongDoubleOpenHashMap;
+import com.carrotsearch.hppc.LongObjectOpenHashMap;
+import com.carrotsearch.hppc.cursors.ObjectCursor;
+import com.matthatem.ai.msa.MSA;
+import com.matthatem.ai.msa.MSAHeuristic;
+import com.matthatem.ai.msa.MSA.MSANode;
+import com.matthatem.ai.msa.MSA.MSAState;
+import com.matthatem.ai.msa.collections.BinHeap;
+import com.matthatem.ai.msa.collections.Indexable;
+
+/**
+ * A hierarchical heuristic in the style of Hierarchical A*.  The 
+ * sequences are split into groups of four and the cost-to-go of the 
+ * projection onto a group is computed on demand by an A* search of the 
+ * group, using the 2D heuristic of the group.  The pairs of sequences 
+ * that are not in the same group use the 2D heuristic.
+ * 
+ * The results of the searches are cached.  The states on the path found
+ * by a search get their exact cost-to-go, the other closed states a lower
+ * bound.  Both are used by later searches, which stop as soon as they 
+ * select a state with an exact value.  The number of cached values of a 
+ * group is bounded, and a search that exceeds its expansion limit falls 
+ * back to the lowest f on its open list or the 2D heuristic.
+ * 
+ * The group instances share the pairwise tables of the 2D heuristic.
+ * A group runs one search at a time over its cache, so concurrent calls
+ * to getH are serialized and the heuristic is not suited to the parallel
+ * searches.
+ * 
+ * @author Matthew Hatem
+ */
+public class HeuristicHierarchical implements MSAHeuristic {
+
+  public static final int GROUP_SIZE = 4;
+  public static final int DEFAULT_CAPACITY = 1 << 22;
+  public static final int MAX_EXPANSIONS = 1 << 16;
+  
+  private HeuristicAF2D h2d;
+  private Group groups[];
+  private int group[];
+  private boolean penTermGaps;
+  private double weight;
+  private int numSeqs;
+  
+  public HeuristicHierarchical(char[][] seqs, HeuristicAF2D h2d, 
+      boolean penTermGaps, double weight) {
+    this(seqs, h2d, penTermGaps, weight, DEFAULT_CAPACITY);
+  }
+  
+  /**
+   * The constructor.
+   * 
+   * @param seqs the sequences
+   * @param h2d the 2D heuristic of the sequences with weight 1
+   * @param penTermGaps true if terminal gaps are penalized
+   * @param weight the weight
+   * @param capacity the maximum number of values cached by each group
+   */
+  public HeuristicHierarchical(char[][] seqs, HeuristicAF2D h2d, 
+      boolean penTermGaps, double weight, int capacity) {
+    this.numSeqs = seqs.length;
+    this.penTermGaps = penTermGaps;
+    this.weight = weight;
+    this.h2d = h2d;
+    this.groups = new Group[numSeqs / GROUP_SIZE];
+    this.group = new int[numSeqs];
+    for (int i=0; i<numSeqs; i++) {
+      group[i] = i / GROUP_SIZE < groups.length ? i / GROUP_SIZE : -1;
+    }
+    for (int g=0; g<groups.length; g++) {
+      groups[g] = new Group(seqs, g*GROUP_SIZE, penTermGaps, capacity);
+    }
+  }
+  
+  public double getInitH() {
+    MSAState state = new MSAState(numSeqs);
+    int delta[] = new int[numSeqs];
+    for (int j=0; j<numSeqs; j++) {
+      delta[j] = penTermGaps ? 1 : 2;
+    }
+    return getH(state, delta);
+  }
+
+  public double getH(MSAState state, int[] delta, int[] index) {
+    throw new IllegalArgumentException();
+  }
+  
+  public double getH(MSAState state, int[] delta) {
+    int pos[] = state.pos;
+    double h = 0;
+    for (int g=0; g<groups.length; g++) {
+      h += groups[g].getH(pos, delta);
+    }
+    for (int i=1; i<numSeqs; i++) {
+      for (int j=0; j<i; j++) {
+        if (group[i] < 0 || group[i] != group[j]) {
+          h += h2d.getH(i, j, pos[i], pos[j], delta[i], delta[j]);
+        }
+      }
+    }
+    return weight*h;
+  }
+  
+  /**
+   * Returns the number of searches run by the groups.
+   * 
+   * @return the number of searches
+   */
+  public long getSearches() {
+    long searches = 0;
+    for (int g=0; g<groups.length; g++) {
+      searches += groups[g].searches;
+    }
+    return searches;
+  }
+  
+  /**
+   * Returns the number of states expanded by the searches of the groups.
+   * 
+   * @return the number of states expanded
+   */
+  public long getExpanded() {
+    long expanded = 0;
+    for (int g=0; g<groups.length; g++) {
+      expanded += groups[g].expanded;
+    }
+    return expanded;
+  }
+  
+  /**
+   * Returns the number of searches that exceeded the expansion limit.
+   * 
+   * @return the number of fallbacks
+   */
+  public long getFallbacks() {
+    long fallbacks = 0;
+    for (int g=0; g<groups.length; g++) {
+      fallbacks += groups[g].fallbacks;
+    }
+    return fallbacks;
+  }
+  
+  /*
+   * A group of sequences with the cache of cost-to-go values of its 
+   * projection.  The values are keyed by the packed state and the 
+   * incoming edge, edge 0 stands for an unknown incoming edge.
+   */
+  private final class Group {
+    private MSA sub;
+    private int index[] = new int[GROUP_SIZE];
+    private int numOps;
+    private int capacity;
+    private LongDoubleOpenHashMap exact = new LongDoubleOpenHashMap();
+    private LongDoubleOpenHashMap bound = new LongDoubleOpenHashMap();
+    private LongObjectOpenHashMap<RNode> closed = 
+        new LongObjectOpenHashMap<RNode>();
+    private BinHeap<RNode> open = new BinHeap<RNode>(new NodeComparator());
+    private MSAState state;
+    private MSAState query;
+    private MSANode parent = new MSANode();
+    private MSANode children[];
+    private long searches;
+    private long expanded;
+    private long fallbacks;
+    
+    public Group(char[][] seqs, int first, boolean penTermGaps, 
+        int capacity) {
+      // the group instance sorts the sequences, the ids map them back
+      StringBuilder sb = new StringBuilder();
+      for (int k=0; k<GROUP_SIZE; k++) {
+        sb.append("# ").append(first+k).append("\n");
+        sb.append(new String(seqs[first+k]).trim()).append("\n");
+      }
+      sub = new MSA(new ByteArrayInputStream(sb.toString().getBytes()), 
+          h2d, penTermGaps);
+      for (int k=0; k<GROUP_SIZE; k++) {
+        index[k] = Integer.parseInt(sub.getSequenceID(k));
+      }
+      this.capacity = capacity;
+      this.numOps = sub.getNumOps();
+      this.state = sub.copy(sub.initial());
+      this.query = sub.copy(sub.initial());
+      this.children = new MSANode[numOps];
+    }
+    
+    /*
+     * Returns the cost-to-go of the projection of the state onto the 
+     * group.
+     */
+    public synchronized double getH(int pos[], int delta[]) {
+      // the incoming edge is not known if no sequence of the group 
+      // advanced or a sequence is at its end with free terminal gaps
+      int eIn = 0;
+      boolean known = true;
+      for (int k=0; k<GROUP_SIZE; k++) {
+        int j = index[k];
+        query.pos[k] = pos[j];
+        if (delta[j] == 1) {
+          eIn |= 1 << k;
+        }
+        else if (delta[j] == 2 && pos[j] > 0) {
+          known = false;
+        }
+      }
+      long packed = sub.pack(query);
+      if (sub.isGoal(packed)) {
+        return 0;
+      }
+      if (!known) {
+        eIn = 0;
+      }
+      long key = key(packed, eIn);
+      if (exact.containsKey(key)) {
+        return exact.get(key);
+      }
+      double h = search(packed, eIn);
+      if (Double.isNaN(h)) {
+        fallbacks++;
+        return Math.max(open.peek().f, fallback(pos, delta));
+      }
+      return h;
+    }
+    
+    /*
+     * Searches for the cost-to-go of the state with the incoming edge, or 
+     * the lowest cost over all incoming edges if the edge is 0.  Returns 
+     * NaN if the expansion limit is reached, leaving the open list as is.
+     */
+    private double search(long packed, int eIn) {
+      searches++;
+      closed.clear();
+      open.clear();
+      int first = eIn == 0 ? 1 : eIn;
+      int last = eIn == 0 ? numOps : eIn;
+      for (int e=first; e<=last; e++) {
+        sub.unpack(packed, (byte)e, state);
+        RNode n = new RNode(packed, (byte)e, 0, getH(state), null);
+        closed.put(key(packed, e), n);
+        open.add(n);
+      }
+      
+      for (int count=0; !open.isEmpty(); count++) {
+        RNode n = open.peek();
+        long key = key(n.packed, n.e);
+        // the f value is exact
+        if (sub.isGoal(n.packed) || exact.containsKey(key)) {
+          double cost = n.f;
+          store(key(packed, eIn), cost, true);
+          for (RNode p = n; p != null; p = p.parent) {
+            store(key(p.packed, p.e), cost - p.g, true);
+          }
+          for (ObjectCursor<RNode> c : closed.values()) {
+            if (c.value.index == -1) {
+              store(key(c.value.packed, c.value.e), cost - c.value.g, false);
+            }
+          }
+          return cost;
+        }
+        if (count == MAX_EXPANSIONS) {
+          return Double.NaN;
+        }
+        open.poll();
+        expanded++;
+        
+        sub.unpack(n.packed, n.e, state);
+        parent.g = n.g;
+        for (int i=0; i<numOps; i++) {
+          children[i] = new MSANode();
+        }
+        int generated = sub.expand(state, parent, children);
+        for (int i=0; i<generated; i++) {
+          MSANode child = children[i];
+          long k = key(child.packed, child.e);
+          RNode dup = closed.get(k);
+          if (dup != null) {
+            if (child.g >= dup.g) {
+              continue;
+            }
+            dup.f = child.g + dup.f - dup.g;
+            dup.g = child.g;
+            dup.parent = n;
+            if (dup.index != -1) {
+              open.update(dup.index);
+            }
+            else {
+              open.add(dup);
+            }
+          }
+          else {
+            double h = child.f - child.g;
+            if (exact.containsKey(k)) {
+              h = exact.get(k);
+            }
+            else if (bound.containsKey(k)) {
+              h = Math.max(h, bound.get(k));
+            }
+            RNode c = new RNode(child.packed, child.e, child.g, 
+                child.g + h, n);
+            closed.put(k, c);
+            open.add(c);
+          }
+        }
+      }
+      return Double.POSITIVE_INFINITY;
+    }
+    
+    /*
+     * Returns the heuristic of a state in the group, the cached value if 
+     * it is better.
+     */
+    private double getH(MSAState s) {
+      long k = key(sub.pack(s), s.e);
+      if (exact.containsKey(k)) {
+        return exact.get(k);
+      }
+      double h = sub.getH(s);
+      if (bound.containsKey(k)) {
+        h = Math.max(h, bound.get(k));
+      }
+      return h;
+    }
+    
+    private void store(long key, double h, boolean isExact) {
+      if (exact.containsKey(key)) {
+        return;
+      }
+      if (isExact) {
+        if (exact.size() + bound.size() < capacity) {
+          exact.put(key, h);
+        }
+        bound.remove(key);
+      }
+      else if (!bound.containsKey(key) || bound.get(key) < h) {
+        if (exact.size() + bound.size() < capacity) {
+          bound.put(key, h);
+        }
+      }
+    }
+    
+    /*
+     * The sum of the 2D heuristic over the pairs of the group.
+     */
+    private double fallback(int pos[], int delta[]) {
+      double h = 0;
+      for (int a=1; a<GROUP_SIZE; a++) {
+        for (int b=0; b<a; b++) {
+          int i = Math.max(index[a], index[b]);
+          int j = Math.min(index[a], index[b]);
+          h += h2d.getH(i, j, pos[i], pos[j], delta[i], delta[j]);
+        }
+      }
+      return h;
+    }
+    
+    private long key(long packed, int e) {
+      return (packed << 5) | e;
+    }
+  }
+  
+  /*
+   * A node of the search of a group.
+   */
+  private static final class RNode implements Indexable {
+    private long packed;
+    private byte e;
+    private double g;
+    private double f;
+    private RNode parent;
+    private int index = -1;
+    public RNode(long packed, byte e, double g, double f, RNode parent) {
+      this.packed = packed;
+      this.e = e;
+      this.g = g;
+      this.f = f;
+      this.parent = parent;
+    }
+    public int getIndex() {
+      return index;
+    }
+    public void setIndex(int index) {
+      this.index = index;
+    }
+  }
+  
+  /*
+   * The node comparator class
+   */
+  private static final class NodeComparator implements Comparator<RNode> {
+    public int compare(final RNode a, final RNode b) {
+      if (a.f == b.f) {
+        if (a.g > b.g) return -1;
+        if (a.g < b.g) return 1;
+        return 0;
+      }
+      else {
+        if (a.f < b.f) return -1;
+        if (a.f > b.f) return 1;
+        return 0;
+      }
+    }
+  }
+
+}
@@ -25,11 +25,30 @@ import org.apache.commons.cli.Options;
 import org.apache.commons.cli.ParseException;
 import org.apache.commons.cli.PosixParser;
 
+import com.matthatem.ai.msa.GreedyAligner;
 import com.matthatem.ai.msa.MSA;
 import com.matthatem.ai.msa.MSA.MSAState;
+import com.matthatem.ai.msa.algorithms.ARAstar;
+import com.matthatem.ai.msa.algorithms.AnchorSearch;
 import com.matthatem.ai.msa.algorithms.Astar;
+import com.matthatem.ai.msa.algorithms.BFHS;
+import com.matthatem.ai.msa.algorithms.BidirectionalAstar;
+import com.matthatem.ai.msa.algorithms.CarrilloLipman;
+import com.matthatem.ai.msa.algorithms.FocalSearch;
+import com.matthatem.ai.msa.algorithms.FringeSearch;
+import com.matthatem.ai.msa.algorithms.FrontierAstar;
+import com.matthatem.ai.msa.algorithms.HDAstar;
+import com.matthatem.ai.msa.algorithms.IDAstar;
+import com.matthatem.ai.msa.algorithms.KBestFirst;
+import com.matthatem.ai.msa.algorithms.OptimisticSearch;
+import com.matthatem.ai.msa.algorithms.PBNF;
+import com.matthatem.ai.msa.algorithms.PEAstar;
+import com.matthatem.ai.msa.algorithms.PipelinedAstar;
+import com.matthatem.ai.msa.algorithms.SMAstar;
 import com.matthatem.ai.msa.algorithms.SearchAlgorithm;
 import com.matthatem.ai.msa.algorithms.SearchResult;
+import com.matthatem.ai.msa.algorithms.SharedAstar;
+import com.matthatem.ai.msa.heuristics.HeuristicHierarchical;
 
 
 /**
@@ -41,6 +60,11 @@ public class MSASolver {
   
   private static String algoString;
   
+  /*
+   * The approximate number of bytes used by a stored node.
+   */
+  private static final int NODE_SIZE = 128;
+  
   public static void main(String[] args) {   
     Options options = createOptions();
     CommandLineParser parser = new PosixParser();
@@ -62,22 +86,52 @@ public class MSASolver {
     long td = System.currentTimeMillis();
         
     result.setAlgorithm(algoString);
-    result.setInitialH((int)msa.getHeuristic().getInitH()); 
+    result.setInitialH((int)msa.getInitH()); 
+    if (msa.getUpperBound() < Double.POSITIVE_INFINITY) {
+      result.setProperty("initial upper bound", 
+          Double.toString(msa.getUpperBound()));
+    }
+    if (msa.getBand() >= 0) {
+      result.setProperty("band", msa.getBand());
+    }
+    if (msa.getHeuristic() instanceof HeuristicHierarchical) {
+      HeuristicHierarchical h = (HeuristicHierarchical)msa.getHeuristic();
+      result.setProperty("group searches", Long.toString(h.getSearches()));
+      result.setProperty("group expanded", Long.toString(h.getExpanded()));
+      result.setProperty("group fallbacks", Long.toString(h.getFallbacks()));
+    }
     result.setStartTime(t);
     result.setEndTime(td);
     
     System.out.println(result); 
     //System.out.println(msa.alignmentToString());
-    System.out.println(msa.alignmentToMSFString());
+    if (msa.goal != null) {
+      System.out.println(msa.alignmentToMSFString());
+    }
   }
   
   private static Options createOptions() {
     Options options = new Options();
-    options.addOption("a", "algorithm", true, "search algorithm");
+    options.addOption("a", "algorithm", true, "search algorithm "
+        + "(anchor_exact runs A* on the whole instance, the anchor "
+        + "alignment is only its upper bound)");
     options.addOption("i", "instance", true, "path to problem instance");
     options.addOption("w", "weight", true, "weight");
     options.addOption("h", "heuristic", true, "heuristic");
     options.addOption("q", "qgaps", false, "quasi natural gap costs");
+    options.addOption("n", "threads", true, "number of threads");
+    options.addOption("t", "time", true, "time limit in seconds");
+    options.addOption("d", "decrement", true, "weight decrement");
+    options.addOption("m", "memory", true, "memory limit in MB");
+    options.addOption("s", "nodes", true, "node budget");
+    options.addOption("x", "immediate", false, "immediate expansion");
+    options.addOption("l", "lazy", false, "lazy heuristic evaluation");
+    options.addOption("u", "upper", true, 
+        "upper bound (cost, wastar or greedy)");
+    options.addOption("b", "band", true, "band width around pairwise paths");
+    options.addOption("o", "owner", true, 
+        "state ownership or nblocks (hash, or 1 or 2 for the lattice projection)");
+    options.addOption("k", "batch", true, "nodes expanded per batch or in the pipeline");
     return options;
   }
 
@@ -95,6 +149,9 @@ public class MSASolver {
         else if ("divconq_int".equals(h)) {
           heuristic = MSA.HEURISTICS.HDIVCONQ_INT;
         }
+        else if ("hierarchical".equals(h)) {
+          heuristic = MSA.HEURISTICS.HHIER;
+        }
         // penalize terminal gaps
         boolean penTermGap = true;
         if (cmd.hasOption("q")) {
@@ -102,7 +159,55 @@ public class MSASolver {
         }
         // weight
         double weight = Double.parseDouble(cmd.getOptionValue("w", "1"));
+        String a = cmd.getOptionValue("a");
+        if ("ara".equals(a) || "optimistic".equals(a) || "focal".equals(a)) {
+          weight = 1; // the search applies the weight
+        }
+        if (!penTermGap && a != null && a.startsWith("anchor")) {
+          fatalError("Anchor decomposition requires penalized terminal gaps");
+        }
+        // the group searches of the hierarchical heuristic are serialized
+        if (heuristic == MSA.HEURISTICS.HHIER && ("hdastar".equals(a) 
+            || "pbnf".equals(a) || "shared".equals(a) || "kbfs".equals(a) 
+            || "pastar".equals(a))) {
+          fatalError("The hierarchical heuristic does not support parallel search");
+        }
         msa = new MSA(new FileInputStream(path), heuristic, penTermGap, weight);
+        // lazy heuristic evaluation
+        if (cmd.hasOption("l")) {
+          if (!"astar".equals(a) && !"wastar".equals(a)) {
+            fatalError("Lazy heuristic evaluation requires astar or wastar");
+          }
+          msa.initLazyHeuristic();
+        }
+        // band around the pairwise alignments
+        if (cmd.hasOption("b")) {
+          msa.setBand(Integer.parseInt(cmd.getOptionValue("b")));
+        }
+        // upper bound on the alignment cost
+        if (cmd.hasOption("u")) {
+          String u = cmd.getOptionValue("u");
+          double bound;
+          if ("wastar".equals(u)) {
+            MSA pre = new MSA(new FileInputStream(path), 
+                MSA.HEURISTICS.H2D, penTermGap, 2);
+            if (msa.getBand() >= 0) {
+              pre.setBand(msa.getBand());
+            }
+            SearchResult<MSAState> r = new Astar(pre).search();
+            bound = r.getPath().isEmpty() ? 
+                Double.POSITIVE_INFINITY : r.getCost();
+          }
+          else if ("greedy".equals(u)) {
+            bound = new GreedyAligner(msa).getCost();
+          }
+          else {
+            bound = Double.parseDouble(u);
+          }
+          if (bound < Double.POSITIVE_INFINITY) {
+            msa.setUpperBound(bound);
+          }
+        }
       } catch (FileNotFoundException e) {
         e.printStackTrace();
       }
@@ -114,7 +219,105 @@ public class MSASolver {
     algoString = cmd.getOptionValue("a");
     SearchAlgorithm algo = null;
     if ("astar".equals(algoString) || "wastar".equals(algoString)) {
-      algo = new Astar(msa);
+      algo = new Astar(msa, cmd.hasOption("x"));
+    }
+    else if ("peastar".equals(algoString)) {
+      algo = new PEAstar(msa);
+    }
+    else if ("epeastar".equals(algoString)) {
+      algo = new PEAstar(msa, true);
+    }
+    else if ("frontier".equals(algoString)) {
+      algo = new FrontierAstar(msa);
+    }
+    else if ("fringe".equals(algoString)) {
+      algo = new FringeSearch(msa);
+    }
+    else if ("anchor".equals(algoString)) {
+      algo = new AnchorSearch(msa, getThreads(cmd), false);
+    }
+    else if ("anchor_exact".equals(algoString)) {
+      // full A* proof, not a decomposition speedup
+      algo = new AnchorSearch(msa, getThreads(cmd), true);
+    }
+    else if ("greedy".equals(algoString)) {
+      algo = new GreedyAligner(msa);
+    }
+    else if ("bidir".equals(algoString)) {
+      algo = new BidirectionalAstar(msa);
+    }
+    else if ("hdastar".equals(algoString)) {
+      String owner = cmd.getOptionValue("o", "hash");
+      if ("hash".equals(owner)) {
+        algo = new HDAstar(msa, getThreads(cmd));
+      }
+      else if ("1".equals(owner) || "2".equals(owner)) {
+        msa.initAbstraction(Integer.parseInt(owner), 0);
+        algo = new HDAstar(msa, getThreads(cmd), true);
+      }
+      else {
+        fatalError("HDA* requires -o hash, 1 or 2: "+owner);
+      }
+    }
+    else if ("pastar".equals(algoString)) {
+      int threads = getThreads(cmd);
+      int lookahead = Integer.parseInt(
+          cmd.getOptionValue("k", Integer.toString(2 * threads)));
+      algo = new PipelinedAstar(msa, threads, lookahead);
+    }
+    else if ("kbfs".equals(algoString)) {
+      int k = Integer.parseInt(cmd.getOptionValue("k", "16"));
+      algo = new KBestFirst(msa, getThreads(cmd), k);
+    }
+    else if ("shared".equals(algoString)) {
+      algo = new SharedAstar(msa, getThreads(cmd));
+    }
+    else if ("pbnf".equals(algoString)) {
+      String level = cmd.getOptionValue("o", "2");
+      if (!"1".equals(level) && !"2".equals(level)) {
+        fatalError("PBNF requires nblocks from the lattice projection, "
+            +"-o 1 or 2: "+level);
+      }
+      msa.initAbstraction(Integer.parseInt(level), 0);
+      algo = new PBNF(msa, getThreads(cmd));
+    }
+    else if ("dp".equals(algoString)) {
+      algo = new CarrilloLipman(msa);
+    }
+    else if ("bfhs".equals(algoString)) {
+      if (msa.getUpperBound() < Double.POSITIVE_INFINITY) {
+        algo = new BFHS(msa, getThreads(cmd), msa.getUpperBound());
+      }
+      else {
+        algo = new BFHS(msa, getThreads(cmd));
+      }
+    }
+    else if ("ara".equals(algoString)) {
+      double weight = Double.parseDouble(cmd.getOptionValue("w", "2"));
+      double decrement = Double.parseDouble(cmd.getOptionValue("d", "0.2"));
+      if (decrement <= 0) {
+        fatalError("The weight decrement must be positive");
+      }
+      double time = Double.parseDouble(cmd.getOptionValue("t", "0"));
+      algo = new ARAstar(msa, weight, decrement, (long)(time * 1000));
+    }
+    else if ("optimistic".equals(algoString)) {
+      double bound = Double.parseDouble(cmd.getOptionValue("w", "1.1"));
+      algo = new OptimisticSearch(msa, bound);
+    }
+    else if ("focal".equals(algoString)) {
+      double bound = Double.parseDouble(cmd.getOptionValue("w", "1.1"));
+      algo = new FocalSearch(msa, bound);
+    }
+    else if ("idastar".equals(algoString)) {
+      algo = new IDAstar(msa, getMemory(cmd));
+    }
+    else if ("smastar".equals(algoString)) {
+      long budget = getMemory(cmd) / NODE_SIZE;
+      if (cmd.hasOption("s")) {
+        budget = Long.parseLong(cmd.getOptionValue("s"));
+      }
+      algo = new SMAstar(msa, budget);
     }
     else {
       fatalError("Unsupported algorithm: "+algoString);
@@ -122,6 +325,30 @@ public class MSASolver {
     return algo;
   }
     
+  private static int getThreads(CommandLine cmd) {
+    int threads = Runtime.getRuntime().availableProcessors();
+    return Integer.parseInt(cmd.getOptionValue("n", Integer.toString(threads)));
+  }
+    
+  /*
+   * Returns the memory limit in bytes, by default a quarter of the heap.
+   * The limit is capped at three quarters of the heap that is still
+   * available.
+   */
+  private static long getMemory(CommandLine cmd) {
+    Runtime rt = Runtime.getRuntime();
+    long memory = rt.maxMemory() / 4;
+    if (cmd.hasOption("m")) {
+      memory = Long.parseLong(cmd.getOptionValue("m")) << 20;
+    }
+    long available = rt.maxMemory() - (rt.totalMemory() - rt.freeMemory());
+    if (memory > available / 4 * 3) {
+      memory = available / 4 * 3;
+      System.out.println("Memory limit reduced to "+(memory >> 20)+" MB");
+    }
+    return memory;
+  }
+    
   private static void fatalError(final String message) {
     System.err.println(message);
     System.exit(1);